@@ -0,0 +1,175 @@
+package battleship;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Battlefield.shoot, one at a time and batched, addShip (which runs canPlaceShip) and asString on the
+// standard 10x10 field.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BattlefieldBenchmark {
+
+    private static final int CELLS = Coordinate.STANDARD_SIZE * Coordinate.STANDARD_SIZE;
+    // fields built ahead of every iteration: one batch of the benchmarks that change them
+    private static final int FIELDS = 4096;
+
+    private final BenchmarkFleets fleets = new BenchmarkFleets(42);
+    private final Coordinate[] shots = new Coordinate[CELLS];
+    private final int[] salvo = new int[CELLS];
+    private final ShotResult.Kind[] kinds = new ShotResult.Kind[CELLS];
+    private int layout;
+    private int next;
+
+    // placed fleets with both views rendered
+    private final Battlefield[] battlefields = new Battlefield[FIELDS];
+    // fleets that are ready to be placed on empty fields
+    private final Battlefield[] empties = new Battlefield[FIELDS];
+    private final Ship[][] ships = new Ship[FIELDS][];
+    private final Ship[] tooClose = new Ship[FIELDS];
+
+    @Setup(Level.Trial)
+    public void setUpShots() {
+        for (int cell = 0; cell < CELLS; cell++) {
+            shots[cell] = Coordinate.of(cell / Coordinate.STANDARD_SIZE, cell % Coordinate.STANDARD_SIZE);
+            salvo[cell] = cell;
+        }
+    }
+
+    // Level.Invocation would time the setup along with a benchmark of a few nanoseconds, so the fields
+    // are built per iteration instead. The benchmarks that change a field run as a batch of FIELDS
+    // single shots, one fresh field each; the others cycle through the fields.
+    @Setup(Level.Iteration)
+    public void setUpFields() {
+        for (int i = 0; i < FIELDS; i++) {
+            layout++;
+            Battlefield battlefield = new Battlefield();
+            Ship[] placed = fleets.ships(battlefield, layout);
+            for (Ship ship : placed) {
+                battlefield.addShip(ship);
+            }
+            tooClose[i] = new Ship(battlefield, nextTo(placed[0]), Ship.Orientation.HORIZONTAL, 1);
+            battlefield.asString(true);
+            battlefield.asString(false);
+            battlefields[i] = battlefield;
+            empties[i] = new Battlefield();
+            ships[i] = fleets.ships(empties[i], layout);
+        }
+        next = 0;
+    }
+
+    private int nextField() {
+        int field = next;
+        next = (field + 1) % FIELDS;
+        return field;
+    }
+
+    // a cell on the border of the ship
+    private static Coordinate nextTo(Ship ship) {
+        for (Coordinate neighbor : ship.getHead().getNeighbors()) {
+            if (neighbor.getRow() < Coordinate.STANDARD_SIZE && neighbor.getCol() < Coordinate.STANDARD_SIZE
+                    && !Arrays.asList(ship.getCoordinates()).contains(neighbor)) {
+                return neighbor;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    // every cell of the field once: misses, hits, sinks and the final win
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = FIELDS)
+    @Measurement(iterations = 10, batchSize = FIELDS)
+    @OperationsPerInvocation(CELLS)
+    public boolean shootEveryCell() {
+        Battlefield battlefield = battlefields[nextField()];
+        boolean hit = false;
+        for (Coordinate shot : shots) {
+            hit ^= battlefield.shoot(shot).isHit();
+        }
+        return hit;
+    }
+
+    // the same shots as one batch
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = FIELDS)
+    @Measurement(iterations = 10, batchSize = FIELDS)
+    @OperationsPerInvocation(CELLS)
+    public int salvoEveryCell() {
+        return battlefields[nextField()].shoot(salvo, CELLS, kinds);
+    }
+
+    // the five ships of a standard fleet on an empty field
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = FIELDS)
+    @Measurement(iterations = 10, batchSize = FIELDS)
+    public Battlefield placeFleet() {
+        int field = nextField();
+        Battlefield empty = empties[field];
+        for (Ship ship : ships[field]) {
+            empty.addShip(ship);
+        }
+        return empty;
+    }
+
+    // a placement that canPlaceShip rejects
+    @Benchmark
+    public Object placeTooClose() {
+        int field = nextField();
+        Battlefield battlefield = battlefields[field];
+        try {
+            battlefield.addShip(tooClose[field]);
+            return battlefield;
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+
+    // the same placement through check(), which reports it without an exception
+    @Benchmark
+    public Battlefield.Placement checkTooClose() {
+        int field = nextField();
+        Coordinate head = tooClose[field].getHead();
+        return battlefields[field].check(head.getRow(), head.getCol(), head.getRow(), head.getCol(), 1);
+    }
+
+    // both views after a shot, as printed at the start of every turn
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = FIELDS)
+    @Measurement(iterations = 10, batchSize = FIELDS)
+    public void renderAfterShot(Blackhole blackhole) {
+        int field = nextField();
+        Battlefield battlefield = battlefields[field];
+        battlefield.shoot(shots[field % CELLS]);
+        blackhole.consume(battlefield.asString(true));
+        blackhole.consume(battlefield.asString(false));
+    }
+
+    // both views of an unchanged field
+    @Benchmark
+    public void renderUnchanged(Blackhole blackhole) {
+        Battlefield battlefield = battlefields[nextField()];
+        blackhole.consume(battlefield.asString(true));
+        blackhole.consume(battlefield.asString(false));
+    }
+}
@@ -0,0 +1,49 @@
+package battleship;
+
+import java.util.SplittableRandom;
+
+// Random but reproducible standard fleets for the benchmarks, as Battlefields or as console input.
+class BenchmarkFleets {
+
+    static final int LAYOUTS = 64;
+
+    private final FleetGenerator generator = new FleetGenerator(RuleSet.STANDARD);
+    private final int[][] placements = new int[LAYOUTS][];
+
+    BenchmarkFleets(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < LAYOUTS; i++) {
+            placements[i] = new int[generator.getFleet().length];
+            generator.generate(random, placements[i]);
+        }
+    }
+
+    // the ships of layout i, ready for Battlefield.addShip; i may be any int, e.g. a counter that wrapped
+    Ship[] ships(Battlefield battlefield, int layout) {
+        int[] fleet = placements[Math.floorMod(layout, LAYOUTS)];
+        Ship[] ships = new Ship[fleet.length];
+        for (int i = 0; i < fleet.length; i++) {
+            PlacementTable table = generator.getTable(i);
+            int p = fleet[i];
+            Ship.Orientation orientation = table.vertical[p] ? Ship.Orientation.VERTICAL : Ship.Orientation.HORIZONTAL;
+            ships[i] = new Ship(battlefield, Coordinate.of(table.row(p), table.col(p)), orientation, table.length);
+        }
+        return ships;
+    }
+
+    // the head and tail tokens a player types to place layout i
+    String[] tokens(int layout) {
+        int[] fleet = placements[Math.floorMod(layout, LAYOUTS)];
+        String[] tokens = new String[2 * fleet.length];
+        for (int i = 0; i < fleet.length; i++) {
+            PlacementTable table = generator.getTable(i);
+            int p = fleet[i];
+            int row = table.row(p);
+            int col = table.col(p);
+            int end = table.length - 1;
+            tokens[2 * i] = Coordinate.of(row, col).toString();
+            tokens[2 * i + 1] = table.vertical[p] ? Coordinate.of(row + end, col).toString() : Coordinate.of(row, col + end).toString();
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,88 @@
+package battleship;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Whole games: the console Game fed its input token by token, and HeadlessGame between two AIs.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class GameBenchmark {
+
+    private static final int CELLS = Coordinate.STANDARD_SIZE * Coordinate.STANDARD_SIZE;
+
+    private final BenchmarkFleets fleets = new BenchmarkFleets(42);
+    private final String[] shots = new String[CELLS];
+    private int layout;
+
+    @Setup
+    public void setUp() {
+        for (int cell = 0; cell < CELLS; cell++) {
+            shots[cell] = Coordinate.of(cell / Coordinate.STANDARD_SIZE, cell % Coordinate.STANDARD_SIZE).toString();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Players {
+
+        @Param({"random", "density"})
+        public String shooter;
+
+        private final HeadlessGame game = new HeadlessGame(RuleSet.STANDARD);
+        private Shooter first;
+        private Shooter second;
+        private long seed;
+
+        @Setup
+        public void setUp() {
+            Supplier<Shooter> shooters = Simulation.shooter(shooter);
+            first = shooters.get();
+            second = shooters.get();
+        }
+    }
+
+    // placement, passing and shooting with every message rendered; both players sweep the field row by row
+    @Benchmark
+    public Game consoleGame() {
+        layout++;
+        Game game = new Game(Coordinate.STANDARD_SIZE, GameIO.sink(Writer.nullWriter()));
+        game.start();
+        for (String token : fleets.tokens(layout)) {
+            game.accept(token);
+        }
+        game.enter();
+        for (String token : fleets.tokens(layout + 1)) {
+            game.accept(token);
+        }
+        int[] next = new int[2];
+        int player = 0;
+        while (!game.isFinished()) {
+            game.enter();
+            game.accept(shots[next[player]++]);
+            player = 1 - player;
+        }
+        return game;
+    }
+
+    @Benchmark
+    public int headlessGame(Players players) {
+        return players.game.play(players.first, players.second, new SplittableRandom(Simulation.gameSeed(42, players.seed++)));
+    }
+}
@@ -0,0 +1,56 @@
+package battleship;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Parsing player input with Ship.convertToFieldCoordinates and reading a ship's cells.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ShipBenchmark {
+
+    private static final String[] INPUT = {"A1", "J10", "E5", "C7", "H2", "B10", "F6", "I9"};
+
+    private final Ship[] ships = new BenchmarkFleets(42).ships(new Battlefield(), 0);
+    private int next;
+
+    @Setup
+    public void setUp() {
+        next = 0;
+    }
+
+    @Benchmark
+    public Coordinate convertValid() {
+        next = (next + 1) & (INPUT.length - 1);
+        return Ship.convertToFieldCoordinates(INPUT[next]);
+    }
+
+    // the error path a mistyped shot takes
+    @Benchmark
+    public Object convertInvalid() {
+        try {
+            return Ship.convertToFieldCoordinates("K11");
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Coordinate[] getCoordinates() {
+        next = (next + 1) % ships.length;
+        return ships[next].getCoordinates();
+    }
+}
@@ -0,0 +1,91 @@
+package battleship;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// The computer opponent of a single-player Game: a shooter that answers within a time budget.
+// The DensityShooter's pick is ready at once and is played unless something better turns up in
+// time; the rest of the budget goes to drawing fleets from a one-chain PosteriorSampler, and the
+// cell that most of them put a ship on wins. Both keep their state from move to move and from game
+// to game, and all of it runs on the calling thread. The chain gets through its burn-in in newGame,
+// within one move's budget, and the first moves finish what is left of it. The deadline reaches
+// down into the sampler, so a move never runs more than a sweep or a few search steps over budget.
+class AnytimeShooter implements Shooter {
+
+    // fleets drawn between two looks at the clock
+    private static final int ROUND = 8;
+
+    private final long budgetNanos;
+    private final DensityShooter density = new DensityShooter();
+    private final long[] counts = new long[BitBattlefield.CELLS];
+    private PosteriorSampler sampler;
+    private RuleSet rules;
+    private long samples;
+
+    AnytimeShooter(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    @Override
+    public void newGame(RuleSet rules, SplittableRandom random) {
+        density.newGame(rules, random);
+        if (rules.isTouching()) {
+            // the sampler cannot tell touching ships apart; the density counts alone will do
+            sampler = null;
+        } else if (sampler == null || this.rules != rules) {
+            sampler = new PosteriorSampler(rules, 1, random.nextLong(), null);
+        } else {
+            sampler.reset(random.nextLong());
+        }
+        this.rules = rules;
+        if (sampler != null) {
+            sampler.warmUp(System.nanoTime() + budgetNanos);
+        }
+    }
+
+    @Override
+    public int nextShot() {
+        long deadline = System.nanoTime() + budgetNanos;
+        int best = density.nextShot();
+        samples = 0;
+        if (sampler == null) {
+            return best;
+        }
+        Arrays.fill(counts, 0);
+        do {
+            long drawn = sampler.sample(ROUND, deadline);
+            if (drawn == 0) {
+                break;
+            }
+            for (int cell : rules.getCells()) {
+                counts[cell] += sampler.getCount(cell);
+            }
+            samples += drawn;
+        } while (System.nanoTime() - deadline < 0);
+        if (samples == 0) {
+            return best;
+        }
+        // the density pick keeps ties
+        long bestCount = counts[best];
+        for (int cell : rules.getCells()) {
+            if (counts[cell] > bestCount && !sampler.isResolved(cell)) {
+                best = cell;
+                bestCount = counts[cell];
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void onShot(int cell, Game.Outcome outcome) {
+        density.onShot(cell, outcome);
+        if (sampler != null) {
+            sampler.observe(cell, outcome);
+        }
+    }
+
+    // the fleets the last move was based on, 0 when it was the density pick alone
+    long getSamples() {
+        return samples;
+    }
+}
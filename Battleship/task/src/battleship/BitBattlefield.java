@@ -0,0 +1,366 @@
+package battleship;
+
+import java.util.Arrays;
+
+// Same rules as Battlefield, but every layer is a 100-bit mask split into two longs:
+// cells 0..63 live in the "lo" word and cells 64..99 in the "hi" word (cell = row * SIZE + col).
+class BitBattlefield {
+
+    static final int SIZE = 10;
+    static final int CELLS = SIZE * SIZE;
+
+    static final long HI_MASK = (1L << (CELLS - 64)) - 1;
+
+    // what strike() did
+    private static final int MISS = 0;
+    private static final int HIT = 1;
+    private static final int SUNK = 2;
+    private static final int REPEAT = 3;
+    private static final long FIRST_COL_LO;
+    private static final long FIRST_COL_HI;
+    private static final long LAST_COL_LO;
+    private static final long LAST_COL_HI;
+
+    static {
+        long firstLo = 0, firstHi = 0, lastLo = 0, lastHi = 0;
+        for (int row = 0; row < SIZE; row++) {
+            int first = row * SIZE;
+            int last = first + SIZE - 1;
+            if (first < 64) firstLo |= 1L << first; else firstHi |= 1L << (first - 64);
+            if (last < 64) lastLo |= 1L << last; else lastHi |= 1L << (last - 64);
+        }
+        FIRST_COL_LO = firstLo;
+        FIRST_COL_HI = firstHi;
+        LAST_COL_LO = lastLo;
+        LAST_COL_HI = lastHi;
+    }
+
+    // whether ships may be placed next to each other
+    private final boolean touching;
+
+    private long shipsLo, shipsHi;
+    private long hitsLo, hitsHi;
+    private long missesLo, missesHi;
+    private long bordersLo, bordersHi;
+
+    // one mask and one hit counter per placed ship, in placement order
+    private long[] shipLo = new long[8];
+    private long[] shipHi = new long[8];
+    private int[] sectionsRemaining = new int[8];
+    private int placedShips = 0;
+
+    private int numberOfShips = 0;
+    // ship cells not hit yet
+    private int hitPoints = 0;
+
+    BitBattlefield() {
+        this(false);
+    }
+
+    BitBattlefield(boolean touching) {
+        this.touching = touching;
+    }
+
+    // Bit boards number the cells of every field up to SIZE x SIZE as if it were SIZE wide, while
+    // Battlefield, Game and GameSnapshot number them row * size + col. These are the only places
+    // that convert between the two.
+    static int cell(int row, int col) {
+        return row * SIZE + col;
+    }
+
+    static int row(int cell) {
+        return cell / SIZE;
+    }
+
+    static int col(int cell) {
+        return cell % SIZE;
+    }
+
+    static Coordinate coordinate(int cell) {
+        return Coordinate.of(row(cell), col(cell));
+    }
+
+    // the bit board cell of cell row * size + col on a field size wide
+    static int fromField(int fieldCell, int size) {
+        return cell(fieldCell / size, fieldCell % size);
+    }
+
+    public int getNumberOfShips() {
+        return numberOfShips;
+    }
+
+    int getHitPoints() {
+        return hitPoints;
+    }
+
+    // ships count in placement order, which for FleetGenerator.placeAll is the order of the fleet
+    boolean isAfloat(int ship) {
+        return sectionsRemaining[ship] > 0;
+    }
+
+    void reset() {
+        shipsLo = shipsHi = 0;
+        hitsLo = hitsHi = 0;
+        missesLo = missesHi = 0;
+        bordersLo = bordersHi = 0;
+        placedShips = 0;
+        numberOfShips = 0;
+        hitPoints = 0;
+    }
+
+    void addShip(Ship ship) {
+        Coordinate head = ship.getHead();
+        place(head.getRow(), head.getCol(), ship.getLength(), ship.getOrientation() == Ship.Orientation.VERTICAL);
+    }
+
+    void addShip(int row, int col, int length, boolean vertical) {
+        place(row, col, length, vertical);
+    }
+
+    private void place(int row, int col, int length, boolean vertical) {
+        if (row < 0 || col < 0 || length < 1
+                || (vertical ? row + length : row + 1) > SIZE || (vertical ? col + 1 : col + length) > SIZE) {
+            throw new IllegalArgumentException("Error! Wrong ship location! Try again:");
+        }
+        long lo = maskLo(row, col, length, vertical);
+        long hi = maskHi(row, col, length, vertical);
+
+        if (!canPlaceShip(lo, hi)) {
+            throw new IllegalArgumentException("Error! You placed it too close to another one. Try again:\n");
+        }
+
+        // a later ship takes over any cells it shares with an earlier one, exactly like BattlefieldCell.setShip
+        for (int i = 0; i < placedShips; i++) {
+            shipLo[i] &= ~lo;
+            shipHi[i] &= ~hi;
+        }
+        if (placedShips == shipLo.length) {
+            shipLo = Arrays.copyOf(shipLo, placedShips * 2);
+            shipHi = Arrays.copyOf(shipHi, placedShips * 2);
+            sectionsRemaining = Arrays.copyOf(sectionsRemaining, placedShips * 2);
+        }
+        shipLo[placedShips] = lo;
+        shipHi[placedShips] = hi;
+        sectionsRemaining[placedShips] = length;
+        placedShips++;
+
+        hitPoints += Long.bitCount(lo & ~shipsLo) + Long.bitCount(hi & ~shipsHi);
+        shipsLo |= lo;
+        shipsHi |= hi;
+        if (!touching) {
+            bordersLo |= neighborsLo(lo, hi) & ~shipsLo;
+            bordersHi |= neighborsHi(lo, hi) & ~shipsHi;
+        }
+        numberOfShips++;
+    }
+
+    boolean canPlaceShip(int row, int col, int length, boolean vertical) {
+        return canPlaceShip(maskLo(row, col, length, vertical), maskHi(row, col, length, vertical));
+    }
+
+    boolean canPlaceShip(long lo, long hi) {
+        return (lo & bordersLo) == 0 && (hi & bordersHi) == 0;
+    }
+
+    public boolean shoot(Coordinate shot) {
+        return shoot(cell(shot.getRow(), shot.getCol()));
+    }
+
+    public boolean shoot(int cell) {
+        int result = strike(cell);
+        return result == HIT || result == SUNK;
+    }
+
+    // the outcome Game reports for the shot, where shooting a cell twice is a miss
+    Game.Outcome fire(int cell) {
+        switch (strike(cell)) {
+            case SUNK:
+                return numberOfShips == 0 ? Game.Outcome.WIN : Game.Outcome.SHIP_SUNK;
+            case HIT:
+                return Game.Outcome.HIT;
+            default:
+                return Game.Outcome.MISS;
+        }
+    }
+
+    // Fires at every cell of the mask in one go, e.g. a whole salvo. out gets the cells hit and then
+    // the cells missed as lo/hi pairs, leaving out cells shot before. Returns how many ships went down.
+    int salvo(long lo, long hi, long[] out) {
+        long newHitsLo = lo & shipsLo & ~hitsLo;
+        long newHitsHi = hi & shipsHi & ~hitsHi;
+        long newMissesLo = lo & ~shipsLo & ~missesLo;
+        long newMissesHi = hi & ~shipsHi & ~missesHi & HI_MASK;
+        hitsLo |= newHitsLo;
+        hitsHi |= newHitsHi;
+        missesLo |= newMissesLo;
+        missesHi |= newMissesHi;
+        int sunk = 0;
+        if ((newHitsLo | newHitsHi) != 0) {
+            hitPoints -= Long.bitCount(newHitsLo) + Long.bitCount(newHitsHi);
+            for (int i = 0; i < placedShips; i++) {
+                int hits = Long.bitCount(shipLo[i] & newHitsLo) + Long.bitCount(shipHi[i] & newHitsHi);
+                if (hits > 0) {
+                    sectionsRemaining[i] -= hits;
+                    if (sectionsRemaining[i] == 0) {
+                        sunk++;
+                        numberOfShips--;
+                    }
+                }
+            }
+        }
+        out[0] = newHitsLo;
+        out[1] = newHitsHi;
+        out[2] = newMissesLo;
+        out[3] = newMissesHi;
+        return sunk;
+    }
+
+    private int strike(int cell) {
+        if (cell < 64) {
+            long bit = 1L << cell;
+            if (((hitsLo | missesLo) & bit) != 0) {
+                return REPEAT;
+            }
+            if ((shipsLo & bit) == 0) {
+                missesLo |= bit;
+                return MISS;
+            }
+            hitsLo |= bit;
+            return hit(bit, 0);
+        } else {
+            long bit = 1L << (cell - 64);
+            if (((hitsHi | missesHi) & bit) != 0) {
+                return REPEAT;
+            }
+            if ((shipsHi & bit) == 0) {
+                missesHi |= bit;
+                return MISS;
+            }
+            hitsHi |= bit;
+            return hit(0, bit);
+        }
+    }
+
+    private int hit(long lo, long hi) {
+        hitPoints--;
+        for (int i = 0; i < placedShips; i++) {
+            if ((shipLo[i] & lo) != 0 || (shipHi[i] & hi) != 0) {
+                if (--sectionsRemaining[i] == 0) {
+                    numberOfShips--;
+                    return SUNK;
+                }
+                return HIT;
+            }
+        }
+        return HIT;
+    }
+
+    public String asString(boolean hidden) {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        // build header
+        stringBuilder.append("  ");
+        for (int i = 1; i <= SIZE; i++) {
+            stringBuilder.append(i);
+            if (i != SIZE) {
+                stringBuilder.append(" ");
+            } else {
+                stringBuilder.append('\n');
+            }
+        }
+
+        // main part
+        for (int row = 0; row < SIZE; row++) {
+            stringBuilder.append((char) ('A' + row));
+            stringBuilder.append(" ");
+            for (int col = 0; col < SIZE; col++) {
+                stringBuilder.append(cellChar(cell(row, col), hidden));
+                if (col != SIZE - 1) {
+                    stringBuilder.append(' ');
+                }
+            }
+            if (row != SIZE - 1) {
+                stringBuilder.append('\n');
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+    private char cellChar(int cell, boolean hidden) {
+        if (isSet(hitsLo, hitsHi, cell)) {
+            return 'X';
+        }
+        if (isSet(missesLo, missesHi, cell)) {
+            return 'M';
+        }
+        if (!hidden && isSet(shipsLo, shipsHi, cell)) {
+            return 'O';
+        }
+        return '~';
+    }
+
+    long getShipsLo() {
+        return shipsLo;
+    }
+
+    long getShipsHi() {
+        return shipsHi;
+    }
+
+    long getHitsLo() {
+        return hitsLo;
+    }
+
+    long getHitsHi() {
+        return hitsHi;
+    }
+
+    long getMissesLo() {
+        return missesLo;
+    }
+
+    long getMissesHi() {
+        return missesHi;
+    }
+
+    static boolean isSet(long lo, long hi, int cell) {
+        return cell < 64 ? (lo & (1L << cell)) != 0 : (hi & (1L << (cell - 64))) != 0;
+    }
+
+    static long maskLo(int row, int col, int length, boolean vertical) {
+        long mask = 0;
+        int cell = cell(row, col);
+        int step = vertical ? SIZE : 1;
+        for (int i = 0; i < length; i++, cell += step) {
+            if (cell < 64) mask |= 1L << cell;
+        }
+        return mask;
+    }
+
+    static long maskHi(int row, int col, int length, boolean vertical) {
+        long mask = 0;
+        int cell = cell(row, col);
+        int step = vertical ? SIZE : 1;
+        for (int i = 0; i < length; i++, cell += step) {
+            if (cell >= 64) mask |= 1L << (cell - 64);
+        }
+        return mask;
+    }
+
+    // orthogonal neighbours of a mask, the mask version of Coordinate.getNeighbors
+    static long neighborsLo(long lo, long hi) {
+        long east = (lo << 1) & ~FIRST_COL_LO;
+        long west = ((lo >>> 1) | (hi << 63)) & ~LAST_COL_LO;
+        long south = lo << SIZE;
+        long north = (lo >>> SIZE) | (hi << (64 - SIZE));
+        return east | west | south | north;
+    }
+
+    static long neighborsHi(long lo, long hi) {
+        long east = ((hi << 1) | (lo >>> 63)) & ~FIRST_COL_HI;
+        long west = (hi >>> 1) & ~LAST_COL_HI;
+        long south = (hi << SIZE) | (lo >>> (64 - SIZE));
+        long north = hi >>> SIZE;
+        return (east | west | south | north) & HI_MASK;
+    }
+}
@@ -0,0 +1,188 @@
+package battleship;
+
+import java.util.Arrays;
+
+// Renders a Battlefield for both views (hidden ships or visible ships) from cached rows.
+// Battlefield reports every cell that place() or shoot() changes, which drops the cached row and
+// queues the cell for diff(), so an unchanged board is returned as the same string.
+// Boards wider than MAX_RENDERED are shown as a window of MAX_RENDERED rows and columns around the
+// last changed cell: the whole of a 10000x10000 board would be some 200 million chars per view.
+class BoardRenderer {
+
+    static final int MAX_RENDERED = 100;
+
+    private static final int HIDDEN = 0;
+    private static final int VISIBLE = 1;
+    private static final char ESC = '\u001b';
+
+    private final Battlefield battlefield;
+    private final int size;
+    private final int labelWidth;
+    private final String header;
+    private final boolean windowed;
+
+    private final String[][] rows = new String[2][];
+    private final String[] boards = new String[2];
+
+    // cells changed since the last diff() of each view, or -1 when the view needs a full redraw
+    private final int[][] changed = new int[2][];
+    private final int[] changedCount = new int[2];
+    // the cell each view was last changed at, which a windowed view is centred on
+    private final int[] focusRow = new int[2];
+    private final int[] focusCol = new int[2];
+
+    BoardRenderer(Battlefield battlefield) {
+        this.battlefield = battlefield;
+        this.size = battlefield.getSize();
+        this.labelWidth = Coordinate.rowName(size - 1).length();
+        this.windowed = size > MAX_RENDERED;
+        this.header = windowed ? null : buildHeader(0, size);
+        for (int view = HIDDEN; view <= VISIBLE; view++) {
+            rows[view] = new String[size];
+            changed[view] = new int[16];
+        }
+    }
+
+    String render(boolean hidden) {
+        int view = hidden ? HIDDEN : VISIBLE;
+        String board = boards[view];
+        if (board != null) {
+            return board;
+        }
+        if (windowed) {
+            board = renderWindow(view, hidden);
+            boards[view] = board;
+            return board;
+        }
+
+        String[] viewRows = rows[view];
+        StringBuilder stringBuilder = new StringBuilder(header.length() + size * (labelWidth + 1 + 2 * size));
+        stringBuilder.append(header);
+        for (int row = 0; row < size; row++) {
+            if (viewRows[row] == null) {
+                viewRows[row] = renderRow(row, hidden, 0, size);
+            }
+            stringBuilder.append(viewRows[row]);
+            if (row != size - 1) {
+                stringBuilder.append('\n');
+            }
+        }
+        board = stringBuilder.toString();
+        boards[view] = board;
+        return board;
+    }
+
+    void cellChanged(int row, int col, boolean visibleOnly) {
+        invalidate(VISIBLE, row, col);
+        if (!visibleOnly) {
+            invalidate(HIDDEN, row, col);
+        }
+    }
+
+    // ANSI cursor updates for the cells changed since the last call, for a board whose header line
+    // is printed at terminal line top, column left (both 1-based). The cursor is saved and restored.
+    String diff(boolean hidden, int top, int left) {
+        int view = hidden ? HIDDEN : VISIBLE;
+        int count = changedCount[view];
+        if (count == 0) {
+            return "";
+        }
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(ESC).append('7');
+        // a window may have moved, so it is always drawn again
+        if (count < 0 || windowed) {
+            String[] lines = render(hidden).split("\n");
+            for (int line = 0; line < lines.length; line++) {
+                moveTo(stringBuilder, top + line, left).append(lines[line]);
+            }
+        } else {
+            int[] cells = changed[view];
+            for (int i = 0; i < count; i++) {
+                int row = cells[i] / size;
+                int col = cells[i] % size;
+                moveTo(stringBuilder, top + 1 + row, left + labelWidth + 1 + 2 * col)
+                        .append(battlefield.cellChar(row, col, hidden));
+            }
+        }
+        stringBuilder.append(ESC).append('8');
+        changedCount[view] = 0;
+        return stringBuilder.toString();
+    }
+
+    private void invalidate(int view, int row, int col) {
+        rows[view][row] = null;
+        boards[view] = null;
+        focusRow[view] = row;
+        focusCol[view] = col;
+
+        int count = changedCount[view];
+        if (count < 0) {
+            return;
+        }
+        // a long backlog is cheaper to send as one full redraw
+        if (count == size * size || count == 4096) {
+            changedCount[view] = -1;
+            return;
+        }
+        if (count == changed[view].length) {
+            changed[view] = Arrays.copyOf(changed[view], count * 2);
+        }
+        changed[view][count] = row * size + col;
+        changedCount[view] = count + 1;
+    }
+
+    private static StringBuilder moveTo(StringBuilder stringBuilder, int line, int column) {
+        return stringBuilder.append(ESC).append('[').append(line).append(';').append(column).append('H');
+    }
+
+    private String renderWindow(int view, boolean hidden) {
+        int top = windowStart(focusRow[view]);
+        int left = windowStart(focusCol[view]);
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(buildHeader(left, left + MAX_RENDERED));
+        for (int row = top; row < top + MAX_RENDERED; row++) {
+            stringBuilder.append(renderRow(row, hidden, left, left + MAX_RENDERED)).append('\n');
+        }
+        stringBuilder.append(String.format("Rows %s-%s, columns %d-%d of %d",
+                Coordinate.rowName(top), Coordinate.rowName(top + MAX_RENDERED - 1),
+                left + 1, left + MAX_RENDERED, size));
+        return stringBuilder.toString();
+    }
+
+    private int windowStart(int focus) {
+        return Math.max(0, Math.min(focus - MAX_RENDERED / 2, size - MAX_RENDERED));
+    }
+
+    // the header over columns from (inclusive) to to (exclusive)
+    private String buildHeader(int from, int to) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i <= labelWidth; i++) {
+            stringBuilder.append(' ');
+        }
+        for (int i = from + 1; i <= to; i++) {
+            stringBuilder.append(i);
+            if (i != to) {
+                stringBuilder.append(" ");
+            } else {
+                stringBuilder.append('\n');
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+    private String renderRow(int row, boolean hidden, int from, int to) {
+        StringBuilder stringBuilder = new StringBuilder(labelWidth + 1 + 2 * (to - from));
+        String label = Coordinate.rowName(row);
+        stringBuilder.append(label);
+        for (int i = label.length(); i <= labelWidth; i++) {
+            stringBuilder.append(' ');
+        }
+        for (int col = from; col < to; col++) {
+            stringBuilder.append(battlefield.cellChar(row, col, hidden));
+            if (col != to - 1) {
+                stringBuilder.append(' ');
+            }
+        }
+        return stringBuilder.toString();
+    }
+}
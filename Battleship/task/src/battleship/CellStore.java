@@ -0,0 +1,148 @@
+package battleship;
+
+import java.util.Arrays;
+
+// Where a Battlefield keeps its cells. get() may return null for a cell that was never touched,
+// which reads as an empty, unshot, non-border cell.
+abstract class CellStore {
+
+    abstract BattlefieldCell get(int row, int col);
+
+    abstract BattlefieldCell getOrCreate(int row, int col);
+
+    abstract int storedCells();
+
+    interface Visitor {
+
+        void visit(int row, int col, BattlefieldCell cell);
+    }
+
+    // every stored cell, in no particular order
+    abstract void forEach(Visitor visitor);
+}
+
+class DenseCellStore extends CellStore {
+
+    private final BattlefieldCell[][] field;
+
+    DenseCellStore(int size) {
+        field = new BattlefieldCell[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                field[row][col] = new BattlefieldCell();
+            }
+        }
+    }
+
+    @Override
+    BattlefieldCell get(int row, int col) {
+        return field[row][col];
+    }
+
+    @Override
+    BattlefieldCell getOrCreate(int row, int col) {
+        return field[row][col];
+    }
+
+    @Override
+    int storedCells() {
+        return field.length * field.length;
+    }
+
+    @Override
+    void forEach(Visitor visitor) {
+        for (int row = 0; row < field.length; row++) {
+            for (int col = 0; col < field.length; col++) {
+                visitor.visit(row, col, field[row][col]);
+            }
+        }
+    }
+}
+
+// Open-addressing hash table keyed by row * size + col, so memory follows the ships and shots
+// rather than the area of the field.
+class SparseCellStore extends CellStore {
+
+    private static final long EMPTY = -1;
+
+    private final long size;
+    private long[] keys;
+    private BattlefieldCell[] cells;
+    private int count;
+
+    SparseCellStore(int size) {
+        this.size = size;
+        keys = new long[64];
+        cells = new BattlefieldCell[64];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    @Override
+    BattlefieldCell get(int row, int col) {
+        long key = row * size + col;
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return cells[slot];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    BattlefieldCell getOrCreate(int row, int col) {
+        long key = row * size + col;
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return cells[slot];
+            }
+        }
+        BattlefieldCell cell = new BattlefieldCell();
+        keys[slot] = key;
+        cells[slot] = cell;
+        if (++count * 2 > keys.length) {
+            grow();
+        }
+        return cell;
+    }
+
+    @Override
+    int storedCells() {
+        return count;
+    }
+
+    @Override
+    void forEach(Visitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                visitor.visit((int) (keys[slot] / size), (int) (keys[slot] % size), cells[slot]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        BattlefieldCell[] oldCells = cells;
+        keys = new long[oldKeys.length * 2];
+        cells = new BattlefieldCell[oldCells.length * 2];
+        Arrays.fill(keys, EMPTY);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                cells[slot] = oldCells[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
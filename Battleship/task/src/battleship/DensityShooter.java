@@ -0,0 +1,248 @@
+package battleship;
+
+import java.util.SplittableRandom;
+
+// Shoots at the cell covered by the most fleet placements that are still possible. The counts are
+// kept up to date incrementally: a shot only touches the placements that cover the cells it resolves.
+class DensityShooter implements Shooter {
+
+    private static final int CELLS = BitBattlefield.CELLS;
+    private static final int SIZE = BitBattlefield.SIZE;
+
+    private final PlacementTable[] tables = new PlacementTable[SIZE + 1];
+    private final boolean[][] alive = new boolean[SIZE + 1][];
+    private final int[][] hitCount = new int[SIZE + 1][];
+    // ships of each length that are still afloat
+    private final int[] remaining = new int[SIZE + 1];
+
+    // density: weighted count of live placements over each cell
+    // target: the same, but each placement weighted by the unresolved hits it explains
+    private final int[] density = new int[CELLS];
+    private final int[] target = new int[CELLS];
+
+    private final boolean[] shot = new boolean[CELLS];
+    private final boolean[] unresolved = new boolean[CELLS];
+    private int unresolvedHits;
+    private final int[] component = new int[CELLS];
+
+    private RuleSet rules;
+    private boolean touching;
+    private SplittableRandom random;
+
+    @Override
+    public void newGame(RuleSet rules, SplittableRandom random) {
+        this.random = random;
+        if (this.rules != rules) {
+            this.rules = rules;
+            touching = rules.isTouching();
+            for (int length = 1; length <= SIZE; length++) {
+                tables[length] = null;
+            }
+        }
+        for (int length = 1; length <= SIZE; length++) {
+            remaining[length] = 0;
+        }
+        for (ShipClass shipClass : rules.getFleet()) {
+            int length = shipClass.getLength();
+            if (tables[length] == null) {
+                tables[length] = rules.getTable(length);
+                alive[length] = new boolean[tables[length].count];
+                hitCount[length] = new int[tables[length].count];
+            }
+            remaining[length]++;
+        }
+
+        for (int cell = 0; cell < CELLS; cell++) {
+            density[cell] = 0;
+            target[cell] = 0;
+            // cells off the field count as shot, so they are never picked
+            shot[cell] = !rules.isOnField(cell);
+            unresolved[cell] = false;
+        }
+        unresolvedHits = 0;
+
+        for (int length = 1; length <= SIZE; length++) {
+            if (tables[length] == null) {
+                continue;
+            }
+            PlacementTable table = tables[length];
+            boolean live = remaining[length] > 0;
+            for (int p = 0; p < table.count; p++) {
+                alive[length][p] = live;
+                hitCount[length][p] = 0;
+                if (live) {
+                    for (int cell : table.cells[p]) {
+                        density[cell] += remaining[length];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int nextShot() {
+        int[] score = unresolvedHits > 0 ? target : density;
+        int best = -1;
+        int bestScore = -1;
+        int bestDensity = -1;
+        int ties = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (shot[cell]) {
+                continue;
+            }
+            int value = score[cell];
+            if (value > bestScore || (value == bestScore && density[cell] > bestDensity)) {
+                best = cell;
+                bestScore = value;
+                bestDensity = density[cell];
+                ties = 1;
+            } else if (value == bestScore && density[cell] == bestDensity && random.nextInt(++ties) == 0) {
+                best = cell;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void onShot(int cell, Game.Outcome outcome) {
+        if (shot[cell]) {
+            return;
+        }
+        shot[cell] = true;
+        switch (outcome) {
+            case MISS:
+                clear(cell);
+                break;
+            case HIT:
+                hit(cell);
+                break;
+            case SHIP_SUNK:
+            case ELIMINATED:
+            case WIN:
+                hit(cell);
+                sink(cell);
+                break;
+        }
+    }
+
+    int getDensity(int cell) {
+        return density[cell];
+    }
+
+    private void hit(int cell) {
+        unresolved[cell] = true;
+        unresolvedHits++;
+        for (int length = 1; length <= SIZE; length++) {
+            if (tables[length] == null) {
+                continue;
+            }
+            PlacementTable table = tables[length];
+            for (int p : table.byCell[cell]) {
+                if (alive[length][p]) {
+                    hitCount[length][p]++;
+                    for (int c : table.cells[p]) {
+                        target[c] += remaining[length];
+                    }
+                }
+            }
+            // ships never touch side by side, so a placement next to this hit must contain it
+            if (touching) {
+                continue;
+            }
+            int row = BitBattlefield.row(cell);
+            int col = BitBattlefield.col(cell);
+            if (col > 0) killUnless(length, cell - 1, cell);
+            if (col < SIZE - 1) killUnless(length, cell + 1, cell);
+            if (row > 0) killUnless(length, cell - SIZE, cell);
+            if (row < SIZE - 1) killUnless(length, cell + SIZE, cell);
+        }
+    }
+
+    private void sink(int cell) {
+        // the sunk ship is the run of unresolved hits through this cell; a guess when ships may touch
+        int size = 0;
+        component[size++] = cell;
+        unresolved[cell] = false;
+        for (int i = 0; i < size; i++) {
+            int c = component[i];
+            int row = BitBattlefield.row(c);
+            int col = BitBattlefield.col(c);
+            if (col > 0 && unresolved[c - 1]) { unresolved[c - 1] = false; component[size++] = c - 1; }
+            if (col < SIZE - 1 && unresolved[c + 1]) { unresolved[c + 1] = false; component[size++] = c + 1; }
+            if (row > 0 && unresolved[c - SIZE]) { unresolved[c - SIZE] = false; component[size++] = c - SIZE; }
+            if (row < SIZE - 1 && unresolved[c + SIZE]) { unresolved[c + SIZE] = false; component[size++] = c + SIZE; }
+        }
+        unresolvedHits -= size;
+
+        if (size <= SIZE && remaining[size] > 0) {
+            retire(size);
+        }
+        for (int i = 0; i < size; i++) {
+            clear(component[i]);
+        }
+        if (touching) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            int c = component[i];
+            int row = BitBattlefield.row(c);
+            int col = BitBattlefield.col(c);
+            if (col > 0) clear(c - 1);
+            if (col < SIZE - 1) clear(c + 1);
+            if (row > 0) clear(c - SIZE);
+            if (row < SIZE - 1) clear(c + SIZE);
+        }
+    }
+
+    // one ship of this length is gone: every live placement of that length loses one unit of weight
+    private void retire(int length) {
+        PlacementTable table = tables[length];
+        remaining[length]--;
+        for (int p = 0; p < table.count; p++) {
+            if (alive[length][p]) {
+                int hits = hitCount[length][p];
+                for (int c : table.cells[p]) {
+                    density[c]--;
+                    target[c] -= hits;
+                }
+            }
+        }
+    }
+
+    // no other ship can occupy this cell
+    private void clear(int cell) {
+        for (int length = 1; length <= SIZE; length++) {
+            if (tables[length] == null) {
+                continue;
+            }
+            for (int p : tables[length].byCell[cell]) {
+                if (alive[length][p]) {
+                    kill(length, p);
+                }
+            }
+        }
+    }
+
+    private void killUnless(int length, int cell, int required) {
+        PlacementTable table = tables[length];
+        for (int p : table.byCell[cell]) {
+            if (alive[length][p] && !contains(table, p, required)) {
+                kill(length, p);
+            }
+        }
+    }
+
+    private void kill(int length, int p) {
+        alive[length][p] = false;
+        int weight = remaining[length];
+        int hits = hitCount[length][p] * weight;
+        for (int c : tables[length].cells[p]) {
+            density[c] -= weight;
+            target[c] -= hits;
+        }
+    }
+
+    private static boolean contains(PlacementTable table, int p, int cell) {
+        return BitBattlefield.isSet(table.lo[p], table.hi[p], cell);
+    }
+}
@@ -0,0 +1,538 @@
+package battleship;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Plays the end of a game exactly. Once only a few fleets still agree with what has been seen, it
+// lists them all and searches for the shot order that sinks the rest in the fewest expected shots,
+// every remaining fleet being equally likely.
+//
+// A position is what is known about each cell (unknown, miss, hit, sunk). Its key is the Zobrist
+// hash of those states, so shot orders that reach the same knowledge share one cache entry, and
+// entries stay valid from one turn to the next.
+class EndgameSolver {
+
+    private static final int CELLS = BitBattlefield.CELLS;
+    private static final int MISS = 0;
+    private static final int HIT = 1;
+    private static final int SUNK = 2;
+    private static final int MAX_ENUMERATION_NODES = 1_000_000;
+    private static final int CLOCK_CHECK_NODES = 256;
+
+    private final PlacementTable[] tables;
+    private final int maxLayouts;
+    private final long[][] zobrist = new long[CELLS][3];
+    private final TranspositionCache cache;
+
+    // the afloat ships of every layout: ship k of layout l covers shipLo/Hi[l * afloat + k]
+    private int afloat;
+    private int layoutCount;
+    private long[] shipLo;
+    private long[] shipHi;
+    private long[] unionLo;
+    private long[] unionHi;
+    private final long[] placedLo;
+    private final long[] placedHi;
+    private int[] afloatShips;
+    private long enumerationNodes;
+
+    private long deadline;
+    private boolean timed;
+    private long maxNodes;
+    private boolean aborted;
+    private long nodes;
+    private double expectedShots;
+    private boolean exact;
+
+    EndgameSolver(RuleSet rules, int maxLayouts, int cacheBits) {
+        ShipClass[] fleet = rules.getFleet();
+        this.maxLayouts = maxLayouts;
+        tables = new PlacementTable[fleet.length];
+        for (int i = 0; i < fleet.length; i++) {
+            tables[i] = rules.getTable(fleet[i].getLength());
+        }
+        placedLo = new long[fleet.length];
+        placedHi = new long[fleet.length];
+        shipLo = new long[maxLayouts * fleet.length];
+        shipHi = new long[maxLayouts * fleet.length];
+        unionLo = new long[maxLayouts];
+        unionHi = new long[maxLayouts];
+        SplittableRandom random = new SplittableRandom(0x5EED);
+        for (long[] states : zobrist) {
+            for (int state = 0; state < states.length; state++) {
+                states[state] = random.nextLong();
+            }
+        }
+        cache = new TranspositionCache(cacheBits);
+    }
+
+    // The best next shot, or -1 when more than maxLayouts fleets are left. When the budget runs
+    // out first, the best shot among those fully searched (or else the likeliest hit) is returned.
+    int solve(PosteriorSampler knowledge, long budgetNanos) {
+        return solve(knowledge, budgetNanos, Long.MAX_VALUE);
+    }
+
+    // The same, but the search also stops after maxNodes positions. With budgetNanos at
+    // Long.MAX_VALUE only the nodes count, so the shot depends on the position and the cache alone
+    // and simulations replay the same way however fast the machine is.
+    int solve(PosteriorSampler knowledge, long budgetNanos, long maxNodes) {
+        if (knowledge.getAfloat() == 0 || !enumerate(knowledge)) {
+            return -1;
+        }
+        timed = budgetNanos != Long.MAX_VALUE;
+        deadline = System.nanoTime() + budgetNanos;
+        this.maxNodes = maxNodes;
+        aborted = false;
+        nodes = 0;
+
+        long hitsLo = knowledge.getHitsLo();
+        long hitsHi = knowledge.getHitsHi();
+        int[] layouts = new int[layoutCount];
+        for (int l = 0; l < layoutCount; l++) {
+            layouts[l] = l;
+        }
+        int[] best = new int[1];
+        double value = expect(layouts, layoutCount, hitsLo, hitsHi, key(knowledge), Double.POSITIVE_INFINITY, best);
+        exact = !aborted;
+        expectedShots = value;
+        if (best[0] < 0) {
+            best[0] = likeliestCell(layouts, layoutCount, hitsLo, hitsHi);
+        }
+        return best[0];
+    }
+
+    // the expected shots of the last solve()
+    double getExpectedShots() {
+        return expectedShots;
+    }
+
+    // whether the last solve() finished its search within the budget
+    boolean isExact() {
+        return exact;
+    }
+
+    int getLayoutCount() {
+        return layoutCount;
+    }
+
+    TranspositionCache getCache() {
+        return cache;
+    }
+
+    private long key(PosteriorSampler knowledge) {
+        long key = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (BitBattlefield.isSet(knowledge.getMissesLo(), knowledge.getMissesHi(), cell)) {
+                key ^= zobrist[cell][MISS];
+            } else if (BitBattlefield.isSet(knowledge.getUnresolvedLo(), knowledge.getUnresolvedHi(), cell)) {
+                key ^= zobrist[cell][HIT];
+            } else if (BitBattlefield.isSet(knowledge.getHitsLo(), knowledge.getHitsHi(), cell)) {
+                key ^= zobrist[cell][SUNK];
+            }
+        }
+        return key;
+    }
+
+    // 1 + the best over the cells of the expected shots after shooting there. Values at or above
+    // beta only need to be known to be that high, so those come back as lower bounds.
+    private double expect(int[] layouts, int size, long hitsLo, long hitsHi, long key, double beta,
+                          int[] bestCell) {
+        if (++nodes > maxNodes || timed && nodes % CLOCK_CHECK_NODES == 0 && System.nanoTime() > deadline) {
+            aborted = true;
+        }
+        bestCell[0] = -1;
+        int slot = cache.find(key);
+        if (slot >= 0 && (cache.isExact(slot) || cache.getValue(slot) >= beta)) {
+            bestCell[0] = cache.getCell(slot);
+            return cache.getValue(slot);
+        }
+        long startNodes = nodes;
+
+        // cells that hold an unhit ship in some layout, likeliest first
+        int[] cover = new int[CELLS];
+        double remaining = 0;
+        for (int i = 0; i < size; i++) {
+            int l = layouts[i];
+            long restLo = unionLo[l] & ~hitsLo;
+            long restHi = unionHi[l] & ~hitsHi;
+            remaining += Long.bitCount(restLo) + Long.bitCount(restHi);
+            for (; restLo != 0; restLo &= restLo - 1) {
+                cover[Long.numberOfTrailingZeros(restLo)]++;
+            }
+            for (; restHi != 0; restHi &= restHi - 1) {
+                cover[64 + Long.numberOfTrailingZeros(restHi)]++;
+            }
+        }
+        if (remaining == 0) {
+            return 0;
+        }
+        int[] order = new int[CELLS];
+        int cells = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (cover[cell] > 0) {
+                order[cells++] = cover[cell] * CELLS + cell;
+            }
+        }
+        Arrays.sort(order, 0, cells);
+        // A cell that holds a ship in every layout has to be shot anyway, and shooting it first
+        // costs nothing, so it is the only move worth searching. A known layout is all such cells.
+        int last = order[cells - 1] / CELLS == size ? cells - 1 : 0;
+        if (size == 1) {
+            bestCell[0] = order[last] % CELLS;
+            return remaining;
+        }
+
+        // Every layout needs one shot per unhit ship cell, plus the misses before its first hit.
+        // Those first hits come from distinct cells, each hitting at most its cover of layouts.
+        double misses = 0;
+        int left = size;
+        for (int i = cells - 1, shot = 0; left > 0; i--, shot++) {
+            int first = Math.min(left, order[i] / CELLS);
+            misses += (double) shot * first;
+            left -= first;
+        }
+        double bound = (remaining + misses) / size;
+        if (bound >= beta) {
+            return bound;
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int[] missed = new int[size];
+        int[] hit = new int[size];
+        int[] sunk = new int[size];
+        int[] childBest = new int[1];
+        for (int i = cells - 1; i >= last && !aborted; i--) {
+            int cell = order[i] % CELLS;
+            long cellLo = cell < 64 ? 1L << cell : 0;
+            long cellHi = cell < 64 ? 0 : 1L << (cell - 64);
+            long nextLo = hitsLo | cellLo;
+            long nextHi = hitsHi | cellHi;
+
+            int missCount = 0;
+            int hitCount = 0;
+            int sinkCount = 0;
+            long sunkLo = 0;
+            long sunkHi = 0;
+            double missBound = 0;
+            double hitBound = 0;
+            double sinkBound = 0;
+            for (int j = 0; j < size; j++) {
+                int l = layouts[j];
+                if ((unionLo[l] & cellLo) == 0 && (unionHi[l] & cellHi) == 0) {
+                    missed[missCount++] = l;
+                    missBound += Long.bitCount(unionLo[l] & ~hitsLo) + Long.bitCount(unionHi[l] & ~hitsHi);
+                    continue;
+                }
+                long restLo = unionLo[l] & ~nextLo;
+                long restHi = unionHi[l] & ~nextHi;
+                if ((restLo | restHi) == 0) {
+                    continue;
+                }
+                int rest = Long.bitCount(restLo) + Long.bitCount(restHi);
+                for (int k = 0; k < afloat; k++) {
+                    long lo = shipLo[l * afloat + k];
+                    long hi = shipHi[l * afloat + k];
+                    if ((lo & cellLo) != 0 || (hi & cellHi) != 0) {
+                        if ((lo & ~nextLo) == 0 && (hi & ~nextHi) == 0) {
+                            sunk[sinkCount++] = l;
+                            sinkBound += rest;
+                            sunkLo = lo;
+                            sunkHi = hi;
+                        } else {
+                            hit[hitCount++] = l;
+                            hitBound += rest;
+                        }
+                        break;
+                    }
+                }
+            }
+            // each outcome solved replaces its bound; stop as soon as the cell cannot beat the best
+            double cutoff = (Math.min(best, beta) - 1) * size;
+            double total = 0;
+            if (missBound + hitBound + sinkBound >= cutoff) {
+                continue;
+            }
+            if (hitCount > 0) {
+                double limit = (cutoff - sinkBound - missBound) / hitCount;
+                total += hitCount * expect(Arrays.copyOf(hit, hitCount), hitCount, nextLo, nextHi,
+                        key ^ zobrist[cell][HIT], limit, childBest);
+                if (total + sinkBound + missBound >= cutoff) {
+                    continue;
+                }
+            }
+            if (sinkCount > 0) {
+                // the cell and the hits next to it become one sunk ship
+                long sunkKey = key ^ zobrist[cell][SUNK];
+                for (long lo = sunkLo & ~cellLo; lo != 0; lo &= lo - 1) {
+                    int c = Long.numberOfTrailingZeros(lo);
+                    sunkKey ^= zobrist[c][HIT] ^ zobrist[c][SUNK];
+                }
+                for (long hi = sunkHi & ~cellHi; hi != 0; hi &= hi - 1) {
+                    int c = 64 + Long.numberOfTrailingZeros(hi);
+                    sunkKey ^= zobrist[c][HIT] ^ zobrist[c][SUNK];
+                }
+                double limit = (cutoff - total - missBound) / sinkCount;
+                total += sinkCount * expect(Arrays.copyOf(sunk, sinkCount), sinkCount, nextLo, nextHi, sunkKey, limit,
+                        childBest);
+                if (total + missBound >= cutoff) {
+                    continue;
+                }
+            }
+            if (missCount > 0) {
+                double limit = (cutoff - total) / missCount;
+                total += missCount * expect(Arrays.copyOf(missed, missCount), missCount, hitsLo, hitsHi,
+                        key ^ zobrist[cell][MISS], limit, childBest);
+                if (total >= cutoff) {
+                    continue;
+                }
+            }
+            if (aborted) {
+                break;
+            }
+            best = 1 + total / size;
+            bestCell[0] = cell;
+        }
+        if (aborted) {
+            return best;
+        }
+        // every cell cut off against beta rather than the best: only a lower bound is known
+        if (best >= beta) {
+            bestCell[0] = -1;
+            cache.store(key, beta, -1, false, nodes - startNodes);
+            return beta;
+        }
+        cache.store(key, best, bestCell[0], true, nodes - startNodes);
+        return best;
+    }
+
+    private int likeliestCell(int[] layouts, int size, long hitsLo, long hitsHi) {
+        int[] cover = new int[CELLS];
+        int best = -1;
+        for (int i = 0; i < size; i++) {
+            int l = layouts[i];
+            for (int cell = 0; cell < CELLS; cell++) {
+                if (BitBattlefield.isSet(unionLo[l], unionHi[l], cell) && !BitBattlefield.isSet(hitsLo, hitsHi, cell)
+                        && ++cover[cell] > (best < 0 ? 0 : cover[best])) {
+                    best = cell;
+                }
+            }
+        }
+        return best;
+    }
+
+    // lists every afloat fleet that agrees with the knowledge; false when there are more than maxLayouts
+    private boolean enumerate(PosteriorSampler knowledge) {
+        int ships = tables.length;
+        afloatShips = new int[knowledge.getAfloat()];
+        afloat = 0;
+        long blockedLo = knowledge.getMissesLo();
+        long blockedHi = knowledge.getMissesHi();
+        boolean[] placed = new boolean[ships];
+        for (int ship = 0; ship < ships; ship++) {
+            if (knowledge.isSunk(ship)) {
+                blockedLo |= tables[ship].zoneLo[knowledge.getSunkPlacement(ship)];
+                blockedHi |= tables[ship].zoneHi[knowledge.getSunkPlacement(ship)];
+                placed[ship] = true;
+            } else {
+                afloatShips[afloat++] = ship;
+            }
+        }
+        layoutCount = 0;
+        enumerationNodes = 0;
+        return enumerate(knowledge, placed, blockedLo, blockedHi, knowledge.getUnresolvedLo(),
+                knowledge.getUnresolvedHi());
+    }
+
+    // Like the sampler's search, but exhaustive: the first uncovered hit belongs to exactly one ship,
+    // and with no hits left uncovered the ships are placed in fleet order, so no layout comes twice.
+    private boolean enumerate(PosteriorSampler knowledge, boolean[] placed, long blockedLo, long blockedHi,
+                              long neededLo, long neededHi) {
+        if (++enumerationNodes > MAX_ENUMERATION_NODES) {
+            return false;
+        }
+        int next = -1;
+        for (int ship = 0; ship < tables.length; ship++) {
+            if (!placed[ship]) {
+                next = ship;
+                break;
+            }
+        }
+        if (next < 0) {
+            if ((neededLo | neededHi) != 0) {
+                return true;
+            }
+            if (layoutCount == maxLayouts) {
+                return false;
+            }
+            long lo = 0;
+            long hi = 0;
+            for (int k = 0; k < afloat; k++) {
+                shipLo[layoutCount * afloat + k] = placedLo[afloatShips[k]];
+                shipHi[layoutCount * afloat + k] = placedHi[afloatShips[k]];
+                lo |= placedLo[afloatShips[k]];
+                hi |= placedHi[afloatShips[k]];
+            }
+            unionLo[layoutCount] = lo;
+            unionHi[layoutCount] = hi;
+            layoutCount++;
+            return true;
+        }
+        if ((neededLo | neededHi) == 0) {
+            return place(knowledge, next, placed, blockedLo, blockedHi, 0, 0);
+        }
+        for (int ship = next; ship < tables.length; ship++) {
+            if (!placed[ship] && !place(knowledge, ship, placed, blockedLo, blockedHi, neededLo, neededHi)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean place(PosteriorSampler knowledge, int ship, boolean[] placed, long blockedLo, long blockedHi,
+                          long neededLo, long neededHi) {
+        PlacementTable table = tables[ship];
+        long hitsLo = knowledge.getHitsLo();
+        long hitsHi = knowledge.getHitsHi();
+        boolean covering = (neededLo | neededHi) != 0;
+        int cell = neededLo != 0 ? Long.numberOfTrailingZeros(neededLo) : 64 + Long.numberOfTrailingZeros(neededHi);
+        int count = covering ? table.byCell[cell].length : table.count;
+        placed[ship] = true;
+        for (int i = 0; i < count; i++) {
+            int p = covering ? table.byCell[cell][i] : i;
+            long lo = table.lo[p];
+            long hi = table.hi[p];
+            if ((lo & blockedLo) == 0 && (hi & blockedHi) == 0 && ((lo & ~hitsLo) | (hi & ~hitsHi)) != 0) {
+                placedLo[ship] = lo;
+                placedHi[ship] = hi;
+                if (!enumerate(knowledge, placed, blockedLo | table.zoneLo[p], blockedHi | table.zoneHi[p],
+                        neededLo & ~lo, neededHi & ~hi)) {
+                    placed[ship] = false;
+                    return false;
+                }
+            }
+        }
+        placed[ship] = false;
+        return true;
+    }
+}
+
+// Fixed-size cache of solved positions. Each bucket has two entries: the first keeps whichever
+// entry took the most search work to compute, the second always takes the newest one.
+class TranspositionCache {
+
+    private final int mask;
+    private final long[] keys;
+    private final double[] values;
+    private final int[] cells;
+    private final boolean[] exact;
+    private final long[] work;
+    private long lookups;
+    private long hits;
+
+    TranspositionCache(int bits) {
+        int buckets = 1 << bits;
+        mask = buckets - 1;
+        keys = new long[2 * buckets];
+        values = new double[2 * buckets];
+        cells = new int[2 * buckets];
+        exact = new boolean[2 * buckets];
+        work = new long[2 * buckets];
+    }
+
+    // the slot holding the key, or -1
+    int find(long key) {
+        lookups++;
+        int slot = 2 * ((int) (key ^ (key >>> 32)) & mask);
+        // key 0 marks an empty slot
+        if (key == 0) {
+            return -1;
+        }
+        if (keys[slot] == key || keys[++slot] == key) {
+            hits++;
+            return slot;
+        }
+        return -1;
+    }
+
+    double getValue(int slot) {
+        return values[slot];
+    }
+
+    int getCell(int slot) {
+        return cells[slot];
+    }
+
+    // whether the value is the solved one, rather than a lower bound
+    boolean isExact(int slot) {
+        return exact[slot];
+    }
+
+    void store(long key, double value, int cell, boolean solved, long effort) {
+        if (key == 0) {
+            return;
+        }
+        int slot = 2 * ((int) (key ^ (key >>> 32)) & mask);
+        if (keys[slot] != key && effort < work[slot]) {
+            slot++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        cells[slot] = cell;
+        exact[slot] = solved;
+        work[slot] = effort;
+    }
+
+    long getLookups() {
+        return lookups;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(work, 0);
+    }
+}
+
+// Samples like SamplingShooter until few enough fleets are left, then plays the exact endgame.
+class EndgameShooter implements Shooter {
+
+    private final SamplingShooter sampling;
+    private final long budgetNanos;
+    private final long maxNodes;
+    private RuleSet rules;
+    private EndgameSolver solver;
+
+    EndgameShooter(SamplingShooter sampling, long budgetNanos) {
+        this(sampling, budgetNanos, Long.MAX_VALUE);
+    }
+
+    // see EndgameSolver.solve; a budget of nodes alone keeps simulations and tournaments repeatable
+    EndgameShooter(SamplingShooter sampling, long budgetNanos, long maxNodes) {
+        this.sampling = sampling;
+        this.budgetNanos = budgetNanos;
+        this.maxNodes = maxNodes;
+    }
+
+    @Override
+    public void newGame(RuleSet rules, SplittableRandom random) {
+        sampling.newGame(rules, random);
+        if (solver == null || this.rules != rules) {
+            this.rules = rules;
+            solver = new EndgameSolver(rules, 256, 16);
+        }
+    }
+
+    @Override
+    public int nextShot() {
+        int cell = solver.solve(sampling.getSampler(), budgetNanos, maxNodes);
+        return cell >= 0 ? cell : sampling.nextShot();
+    }
+
+    @Override
+    public void onShot(int cell, Game.Outcome outcome) {
+        sampling.onShot(cell, outcome);
+    }
+}
@@ -0,0 +1,467 @@
+package battleship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Draws uniformly random legal fleets: every legal list of placements, one per ship in fleet order,
+// is equally likely. Two samplers do that, and the first fleet of a kind picks between them:
+//
+// - Rejection: each ship takes a uniformly random placement of its length, and the draw starts over
+//   as soon as one lands inside the zone of an earlier ship. A failed attempt costs only a couple of
+//   mask tests, and a short trial run makes sure a fleet needs few of them.
+// - Counting, for fleets too crowded for that: see Counter. It counts the fleets that fit once, and
+//   then draws each one in a single pass over the field. It only works on small fields, though; a
+//   crowded fleet on a larger one goes back to rejection if a long trial run finds it still takes
+//   a bounded number of attempts on average.
+//
+// Whether a fleet can be drawn is found out on the way, once: the sampler of a whole fleet belongs
+// to its RuleSet, and one limited to candidates to whoever made them. A fleet that does not fit, or
+// is too crowded for both, is refused when the generator is made, or when the candidates' sampler is.
+class FleetGenerator {
+
+    // attempts of the short and the long trial run, and the successes they need: rejection then takes
+    // about attempts / TRIAL_SUCCESSES per fleet at most, a few microseconds after the short run and
+    // some tens of milliseconds after the long one
+    private static final int SHORT_TRIAL = 1 << 12;
+    private static final int LONG_TRIAL = 1 << 20;
+    private static final int TRIAL_SUCCESSES = 4;
+    // the states a Counter may remember before it gives up on a fleet
+    private static final int MAX_STATES = 1 << 20;
+
+    private final RuleSet rules;
+    private final ShipClass[] fleet;
+    private final PlacementTable[] tables;
+    private final Sampler sampler;
+
+    FleetGenerator(RuleSet rules) {
+        this.rules = rules;
+        this.fleet = rules.getFleet();
+        this.tables = tables(rules);
+        this.sampler = rules.getSampler();
+    }
+
+    static PlacementTable[] tables(RuleSet rules) {
+        ShipClass[] fleet = rules.getFleet();
+        PlacementTable[] tables = new PlacementTable[fleet.length];
+        for (int i = 0; i < fleet.length; i++) {
+            tables[i] = rules.getTable(fleet[i].getLength());
+        }
+        return tables;
+    }
+
+    RuleSet getRules() {
+        return rules;
+    }
+
+    ShipClass[] getFleet() {
+        return fleet;
+    }
+
+    PlacementTable getTable(int ship) {
+        return tables[ship];
+    }
+
+    // writes the placement index of every ship of the fleet, in fleet order, into placements
+    void generate(SplittableRandom random, int[] placements) {
+        sampler.generate(random, placements);
+    }
+
+    // draws fleets whose ship i only takes placements listed in candidates[i]. Making one costs a
+    // trial run or more, so the owner of the candidates keeps it; ships with the same table and the
+    // same candidates array are told apart only by their place in the fleet
+    Sampler sampler(int[][] candidates) {
+        return new Sampler(tables, candidates);
+    }
+
+    void generate(SplittableRandom random, BitBattlefield battlefield) {
+        int[] placements = new int[fleet.length];
+        generate(random, placements);
+        placeAll(placements, battlefield);
+    }
+
+    void placeAll(int[] placements, BitBattlefield battlefield) {
+        for (int i = 0; i < fleet.length; i++) {
+            PlacementTable table = tables[i];
+            int p = placements[i];
+            battlefield.addShip(table.row(p), table.col(p), table.length, table.vertical[p]);
+        }
+    }
+
+    // one fleet, or one set of candidates, drawn by rejection or with a Counter; see above
+    static final class Sampler {
+
+        private final PlacementTable[] tables;
+        private final int[][] candidates;
+        // null when rejection is cheap enough
+        private final Counter counter;
+
+        Sampler(PlacementTable[] tables, int[][] candidates) {
+            this.tables = tables;
+            this.candidates = candidates;
+            if (trial(SHORT_TRIAL)) {
+                counter = null;
+                return;
+            }
+            Counter counter = new Counter(tables, candidates);
+            if (counter.fleets() == 0) {
+                throw new IllegalArgumentException("The fleet does not fit on the game field");
+            }
+            if (counter.fleets() < 0 && !trial(LONG_TRIAL)) {
+                throw new IllegalArgumentException("The fleet is too crowded to place at random");
+            }
+            this.counter = counter.fleets() < 0 ? null : counter;
+        }
+
+        // whether rejection finds TRIAL_SUCCESSES fleets within the attempts
+        private boolean trial(int attempts) {
+            SplittableRandom trial = new SplittableRandom(0);
+            int[] placements = new int[tables.length];
+            int successes = 0;
+            for (int attempt = 0; attempt < attempts && successes < TRIAL_SUCCESSES; attempt++) {
+                if (tryGenerate(trial, placements)) {
+                    successes++;
+                }
+            }
+            return successes == TRIAL_SUCCESSES;
+        }
+
+        void generate(SplittableRandom random, int[] placements) {
+            if (counter != null) {
+                counter.generate(random, placements);
+                return;
+            }
+            while (!tryGenerate(random, placements)) {
+                // a trial run found this takes a bounded number of attempts, on average
+            }
+        }
+
+        private boolean tryGenerate(SplittableRandom random, int[] placements) {
+            long blockedLo = 0;
+            long blockedHi = 0;
+            for (int i = 0; i < tables.length; i++) {
+                PlacementTable table = tables[i];
+                int p = candidates == null ? random.nextInt(table.count) : candidates[i][random.nextInt(candidates[i].length)];
+                if ((table.lo[p] & blockedLo) != 0 || (table.hi[p] & blockedHi) != 0) {
+                    return false;
+                }
+                blockedLo |= table.zoneLo[p];
+                blockedHi |= table.zoneHi[p];
+                placements[i] = p;
+            }
+            return true;
+        }
+    }
+
+    // Counts the fleets that fit with a pass over the cells, row by row and left to right. What the
+    // cells still to come need to know of the ones passed is small: per column, whether its latest
+    // cell is empty, taken, or part of a vertical ship that goes on below (and for how long); how
+    // much of a horizontal ship is still to come; and how many ships of each kind are left. The
+    // number of ways to finish from each such state is worked out once and remembered, and a fleet
+    // is drawn by taking each step with a probability in proportion to the ways it leaves open.
+    //
+    // Ships of one kind (same length, same candidates) are told apart only at the end, when they are
+    // dealt out over the fleet in a random order; every list of placements stays equally likely.
+    //
+    // The states grow quickly with the size of the field; past MAX_STATES of them the counter gives up.
+    private static final class Counter {
+
+        // a column of the state: empty, taken, or 1 + the cells a vertical ship has still to come below
+        private static final int EMPTY = 0;
+        private static final int TAKEN = 1;
+        private static final int BITS = 4;
+        private static final int RUN_SHIFT = BitBattlefield.SIZE * BITS;
+        private static final long MASK = (1L << BITS) - 1;
+
+        private final int size;
+        private final boolean touching;
+        private final int[] kindLength;
+        // per kind, whether a ship may take the bit board cell * 2 + vertical
+        private final boolean[][] allowed;
+        // per kind, its ships in fleet order, and the table index of every placement
+        private final int[][] kindShips;
+        private final int[][] placementIndex;
+        // the ships left are a number in a mixed radix, one digit per kind
+        private final long[] radix;
+        private final long fleet;
+        // per cell, the ways to finish from every state met there; filled in by the constructor and
+        // only read after that
+        private final Memo[] ways;
+        private int states;
+        // -1 when the counter gave up
+        private final double fleets;
+
+        Counter(PlacementTable[] tables, int[][] candidates) {
+            size = tables[0].size;
+            touching = tables[0].touching;
+            List<Integer> firstShips = new ArrayList<>();
+            for (int i = 0; i < tables.length; i++) {
+                int kind = 0;
+                while (kind < firstShips.size() && !(tables[firstShips.get(kind)] == tables[i]
+                        && (candidates == null || candidates[firstShips.get(kind)] == candidates[i]))) {
+                    kind++;
+                }
+                if (kind == firstShips.size()) {
+                    firstShips.add(i);
+                }
+            }
+            int kinds = firstShips.size();
+            kindLength = new int[kinds];
+            allowed = new boolean[kinds][2 * BitBattlefield.CELLS];
+            kindShips = new int[kinds][];
+            placementIndex = new int[kinds][2 * BitBattlefield.CELLS];
+            radix = new long[kinds];
+            long fleet = 0;
+            long place = 1;
+            for (int kind = 0; kind < kinds; kind++) {
+                int first = firstShips.get(kind);
+                PlacementTable table = tables[first];
+                kindLength[kind] = table.length;
+                int[] ships = new int[tables.length];
+                int count = 0;
+                for (int i = 0; i < tables.length; i++) {
+                    if (tables[i] == table && (candidates == null || candidates[i] == candidates[first])) {
+                        ships[count++] = i;
+                    }
+                }
+                kindShips[kind] = Arrays.copyOf(ships, count);
+                for (int p = 0; p < table.count; p++) {
+                    placementIndex[kind][table.head[p] * 2 + (table.vertical[p] ? 1 : 0)] = p;
+                }
+                int[] allowedPlacements = candidates == null ? null : candidates[first];
+                for (int i = 0; i < (allowedPlacements == null ? table.count : allowedPlacements.length); i++) {
+                    int p = allowedPlacements == null ? i : allowedPlacements[i];
+                    allowed[kind][table.head[p] * 2 + (table.vertical[p] ? 1 : 0)] = true;
+                }
+                radix[kind] = place;
+                fleet += count * place;
+                place *= count + 1;
+            }
+            this.fleet = fleet;
+            ways = new Memo[size * size];
+            for (int cell = 0; cell < ways.length; cell++) {
+                ways[cell] = new Memo();
+            }
+            double fleets = ways(0, 0, fleet);
+            this.fleets = states == MAX_STATES ? -1 : fleets;
+        }
+
+        double fleets() {
+            return fleets;
+        }
+
+        void generate(SplittableRandom random, int[] placements) {
+            long[] nextState = new long[1 + 2 * kindLength.length];
+            long[] nextLeft = new long[nextState.length];
+            int[] started = new int[nextState.length];
+            int[] shipCells = new int[placements.length];
+            int[] shipKinds = new int[placements.length];
+            int ships = 0;
+            long state = 0;
+            long left = fleet;
+            for (int cell = 0; cell < size * size; cell++) {
+                int options = expand(cell, state, left, nextState, nextLeft, started);
+                double pick = random.nextDouble() * ways(cell, state, left);
+                int chosen = -1;
+                for (int i = 0; i < options; i++) {
+                    double w = ways(cell + 1, nextState[i], nextLeft[i]);
+                    if (w > 0) {
+                        chosen = i;
+                        pick -= w;
+                        if (pick < 0) {
+                            break;
+                        }
+                    }
+                }
+                // rounding can leave pick just above 0 after the last option; it is the one
+                if (started[chosen] >= 0) {
+                    shipKinds[ships] = started[chosen] >>> 1;
+                    shipCells[ships++] = BitBattlefield.fromField(cell, size) * 2 + (started[chosen] & 1);
+                }
+                state = nextState[chosen];
+                left = nextLeft[chosen];
+            }
+            // the ships of a kind go to its places in the fleet in a random order
+            for (int kind = 0; kind < kindLength.length; kind++) {
+                int[] order = kindShips[kind].clone();
+                int next = 0;
+                for (int ship = 0; ship < ships; ship++) {
+                    if (shipKinds[ship] == kind) {
+                        int swap = next + random.nextInt(order.length - next);
+                        int fleetIndex = order[swap];
+                        order[swap] = order[next];
+                        order[next++] = fleetIndex;
+                        placements[fleetIndex] = placementIndex[kind][shipCells[ship]];
+                    }
+                }
+            }
+        }
+
+        // exact up to 2^53 fleets, within rounding above
+        private double ways(int cell, long state, long left) {
+            if (cell == size * size) {
+                return left == 0 ? 1 : 0;
+            }
+            if (!fits(cell, left)) {
+                return 0;
+            }
+            Memo memo = ways[cell];
+            int slot = memo.find(state, left);
+            if (memo.known(slot)) {
+                return memo.values[slot];
+            }
+            if (states == MAX_STATES) {
+                return 0;
+            }
+            long[] nextState = new long[1 + 2 * kindLength.length];
+            long[] nextLeft = new long[nextState.length];
+            int options = expand(cell, state, left, nextState, nextLeft, new int[nextState.length]);
+            double total = 0;
+            for (int i = 0; i < options; i++) {
+                total += ways(cell + 1, nextState[i], nextLeft[i]);
+            }
+            if (states == MAX_STATES) {
+                return 0;
+            }
+            // the slot may have moved while the cells below were worked out
+            memo.put(state, left, total);
+            states++;
+            return total;
+        }
+
+        // whether the ships left, not yet started, can still fit in the cells from cell on. Each ship
+        // takes its cells and, when ships may not touch, the cells right below them and the cells
+        // right of them; the ships own those apart from each other, except for the cells past the
+        // last row or column
+        private boolean fits(int cell, long left) {
+            int cells = size * size - cell;
+            int needed = 0;
+            for (int kind = 0; kind < kindLength.length; kind++) {
+                int ships = (int) shipsLeft(left, kind);
+                needed += touching ? ships * kindLength[kind] : ships * (3 * kindLength[kind] + 1);
+            }
+            return touching ? needed <= cells : needed <= 2 * cells + size + (cells + size - 1) / size;
+        }
+
+        // writes what may be done with the cell and the states that follow; started gets
+        // kind * 2 + vertical for a ship that starts on the cell, -1 otherwise
+        private int expand(int cell, long state, long left, long[] nextState, long[] nextLeft, int[] started) {
+            int row = cell / size;
+            int col = cell % size;
+            int shift = col * BITS;
+            int above = (int) (state >>> shift & MASK);
+            int before = col > 0 ? (int) (state >>> (shift - BITS) & MASK) : EMPTY;
+            int run = (int) (state >>> RUN_SHIFT & MASK);
+            // when ships may touch, the cells below do not care whether this one is taken
+            long taken = touching ? EMPTY : TAKEN;
+            long base = state & ~(MASK << shift) & ~(MASK << RUN_SHIFT);
+            if (run > 0) {
+                // the rest of a horizontal ship
+                if (above > TAKEN || (!touching && above != EMPTY)) {
+                    return 0;
+                }
+                nextState[0] = base | taken << shift | (long) (run - 1) << RUN_SHIFT;
+                nextLeft[0] = left;
+                started[0] = -1;
+                return 1;
+            }
+            if (above > TAKEN) {
+                // the rest of a vertical ship
+                if (!touching && before != EMPTY) {
+                    return 0;
+                }
+                nextState[0] = base | (long) (above - 1) << shift;
+                nextLeft[0] = left;
+                started[0] = -1;
+                return 1;
+            }
+            nextState[0] = base;
+            nextLeft[0] = left;
+            started[0] = -1;
+            int options = 1;
+            if (!touching && (above != EMPTY || before != EMPTY)) {
+                return options;
+            }
+            int bitCell = BitBattlefield.cell(row, col);
+            for (int kind = 0; kind < kindLength.length; kind++) {
+                if (shipsLeft(left, kind) == 0) {
+                    continue;
+                }
+                int length = kindLength[kind];
+                if (col + length <= size && allowed[kind][bitCell * 2]) {
+                    nextState[options] = base | taken << shift | (long) (length - 1) << RUN_SHIFT;
+                    nextLeft[options] = left - radix[kind];
+                    started[options++] = kind * 2;
+                }
+                if (length > 1 && row + length <= size && allowed[kind][bitCell * 2 + 1]) {
+                    nextState[options] = base | (long) length << shift;
+                    nextLeft[options] = left - radix[kind];
+                    started[options++] = kind * 2 + 1;
+                }
+            }
+            return options;
+        }
+
+        private long shipsLeft(long left, int kind) {
+            return left / radix[kind] % (kindShips[kind].length + 1);
+        }
+    }
+
+    // the ways to finish from the states met at one cell, in open addressing on the pair of longs
+    // that makes up a state; a state is never -1, which marks a free slot
+    private static final class Memo {
+
+        private long[] states = new long[16];
+        private long[] lefts = new long[16];
+        private double[] values = new double[16];
+        private int used;
+
+        {
+            Arrays.fill(states, -1);
+        }
+
+        // the slot of the state, or the free slot it would go in
+        int find(long state, long left) {
+            int mask = states.length - 1;
+            int slot = (int) ((state * 0x9E3779B97F4A7C15L ^ left) * 0xC2B2AE3D27D4EB4FL >>> 32) & mask;
+            while (states[slot] != -1 && (states[slot] != state || lefts[slot] != left)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        boolean known(int slot) {
+            return states[slot] != -1;
+        }
+
+        void put(long state, long left, double value) {
+            if (2 * (used + 1) > states.length) {
+                grow();
+            }
+            int slot = find(state, left);
+            states[slot] = state;
+            lefts[slot] = left;
+            values[slot] = value;
+            used++;
+        }
+
+        private void grow() {
+            long[] oldStates = states;
+            long[] oldLefts = lefts;
+            double[] oldValues = values;
+            states = new long[2 * oldStates.length];
+            lefts = new long[states.length];
+            values = new double[states.length];
+            Arrays.fill(states, -1);
+            for (int slot = 0; slot < oldStates.length; slot++) {
+                if (oldStates[slot] != -1) {
+                    int to = find(oldStates[slot], oldLefts[slot]);
+                    states[to] = oldStates[slot];
+                    lefts[to] = oldLefts[slot];
+                    values[to] = oldValues[slot];
+                }
+            }
+        }
+    }
+}
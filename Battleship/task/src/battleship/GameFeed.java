@@ -0,0 +1,221 @@
+package battleship;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The live events of one game for any number of read-only spectators, as 16-byte records:
+//
+//   byte type | byte player | byte outcome | byte target | int game | int row | int col
+//
+// The game thread encodes each event once into a ring and publishes it with one volatile write.
+// Spectators read the ring in place at their own pace, each through its own Cursor, so nobody
+// copies a record per spectator and the game thread never waits for one. Only listeners are
+// called per event: a GameServer registers one per worker thread, however many spectators it has.
+//
+// A cursor that falls a whole ring behind has lost the records in between. Reads are optimistic,
+// like a seqlock: a cursor checks after using the bytes that they were not overwritten meanwhile.
+class GameFeed {
+
+    static final int RECORD_SIZE = 16;
+    // row is the field size
+    static final byte START = 1;
+    // player shot at row, col of target's field; outcome is the Game.Outcome ordinal
+    static final byte SHOT = 2;
+    // the game ended without a winner
+    static final byte ABANDONED = 3;
+
+    interface Handler {
+
+        void start(int game, int size);
+
+        void shot(int game, int player, int target, int row, int col, Game.Outcome outcome);
+
+        void abandoned(int game);
+    }
+
+    private static final Game.Outcome[] OUTCOMES = Game.Outcome.values();
+
+    private final int game;
+    private final ByteBuffer ring;
+    private final int capacity;
+    // bytes published so far; the ring holds the last capacity of them
+    private final AtomicLong published = new AtomicLong();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean finished = false;
+
+    // records is rounded up to a power of two
+    GameFeed(int game, int records) {
+        this.game = game;
+        capacity = Integer.highestOneBit(Math.max(2, records) * 2 - 1) * RECORD_SIZE;
+        ring = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    int getGame() {
+        return game;
+    }
+
+    // whether the last record has been published
+    boolean isFinished() {
+        return finished;
+    }
+
+    long getPublished() {
+        return published.get();
+    }
+
+    // runs on the game thread after every record, so it should only hand the news on
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    // The calls below are for the game thread only.
+
+    void start(int size) {
+        publish(START, 0, 0, 0, size, 0);
+        notifyListeners();
+    }
+
+    void shot(int player, int target, int row, int col, Game.Outcome outcome) {
+        publish(SHOT, player, outcome.ordinal(), target, row, col);
+        // finished only once the last record is out, or a reader could stop short of it
+        finished = outcome == Game.Outcome.WIN;
+        notifyListeners();
+    }
+
+    void abandon() {
+        if (!finished) {
+            publish(ABANDONED, 0, 0, 0, 0, 0);
+            finished = true;
+            notifyListeners();
+        }
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private void publish(byte type, int player, int outcome, int target, int row, int col) {
+        // the last record's position has to be seen before any of the bytes it frees are overwritten,
+        // or a reader could take torn bytes for intact ones; a volatile write alone only orders the
+        // stores before it
+        VarHandle.storeStoreFence();
+        long position = published.get();
+        int offset = (int) (position & (capacity - 1));
+        ring.put(offset, type);
+        ring.put(offset + 1, (byte) player);
+        ring.put(offset + 2, (byte) outcome);
+        ring.put(offset + 3, (byte) target);
+        ring.putInt(offset + 4, game);
+        ring.putInt(offset + 8, row);
+        ring.putInt(offset + 12, col);
+        published.set(position + RECORD_SIZE);
+    }
+
+    // a cursor at the oldest record still in the ring, so late spectators see the game so far
+    Cursor subscribe() {
+        Cursor cursor = new Cursor();
+        cursor.position = oldest(published.get());
+        return cursor;
+    }
+
+    // the first byte a reader may still use: the record being written next overwrites the one after it
+    private long oldest(long end) {
+        return Math.max(0, end + RECORD_SIZE - capacity);
+    }
+
+    class Cursor {
+
+        private final ByteBuffer view = ring.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+        private long lost;
+
+        // The published bytes after the cursor, up to the end of the ring, as a view into the ring
+        // itself; empty when the cursor is up to date. Skips what has been overwritten already.
+        ByteBuffer next() {
+            long end = published.get();
+            long oldest = oldest(end);
+            if (position < oldest) {
+                // a partly used record counts as lost too
+                long skipTo = (oldest + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+                lost += (skipTo - position + RECORD_SIZE - 1) / RECORD_SIZE;
+                position = skipTo;
+            }
+            int offset = (int) (position & (capacity - 1));
+            int length = (int) Math.min(end - position, capacity - offset);
+            view.clear();
+            view.position(offset).limit(offset + length);
+            return view;
+        }
+
+        // Moves past bytes taken from next(). Returns false when they may have been overwritten
+        // while they were in use, in which case they are counted as lost.
+        boolean advance(int bytes) {
+            VarHandle.acquireFence();
+            boolean intact = position >= oldest(published.get());
+            if (!intact) {
+                lost += (bytes + RECORD_SIZE - 1) / RECORD_SIZE;
+            }
+            position += bytes;
+            return intact;
+        }
+
+        // hands every complete record after the cursor to the handler; returns how many
+        int poll(Handler handler) {
+            int count = 0;
+            while (true) {
+                ByteBuffer records = next();
+                if (records.remaining() < RECORD_SIZE) {
+                    return count;
+                }
+                int offset = records.position();
+                byte type = records.get(offset);
+                int player = records.get(offset + 1);
+                int outcome = records.get(offset + 2);
+                int target = records.get(offset + 3);
+                int id = records.getInt(offset + 4);
+                int row = records.getInt(offset + 8);
+                int col = records.getInt(offset + 12);
+                if (!advance(RECORD_SIZE)) {
+                    continue;
+                }
+                switch (type) {
+                    case START:
+                        handler.start(id, row);
+                        break;
+                    case SHOT:
+                        handler.shot(id, player, target, row, col, OUTCOMES[outcome]);
+                        break;
+                    case ABANDONED:
+                        handler.abandoned(id);
+                        break;
+                    default:
+                        throw new IllegalStateException("Corrupt game feed record");
+                }
+                count++;
+            }
+        }
+
+        // whether the cursor has read everything and nothing more is coming
+        boolean isDone() {
+            return finished && position == published.get();
+        }
+
+        long getLost() {
+            return lost;
+        }
+
+        long getPosition() {
+            return position;
+        }
+    }
+}
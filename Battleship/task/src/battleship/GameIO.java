@@ -0,0 +1,112 @@
+package battleship;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.NoSuchElementException;
+
+// The input and output channel of a Game. Input is read a line at a time; next() hands out its
+// whitespace-separated tokens, like Scanner.next(), and awaitEnter() consumes one whole line.
+class GameIO {
+
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
+    private final BufferedReader in;
+    private final PrintWriter out;
+    // an interactive channel flushes its output before it waits for input
+    private final boolean interactive;
+
+    private String line = "";
+    private int position = 0;
+
+    GameIO(Reader in, Writer out, boolean interactive) {
+        this(in, out, interactive, OUTPUT_BUFFER);
+    }
+
+    GameIO(Reader in, Writer out, boolean interactive, int bufferSize) {
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, bufferSize);
+        this.out = new PrintWriter(new BufferedWriter(out, bufferSize));
+        this.interactive = interactive;
+    }
+
+    static GameIO console() {
+        return new GameIO(new InputStreamReader(System.in), new OutputStreamWriter(System.out), true);
+    }
+
+    // replays a recorded script as fast as it can be read; output is only flushed when the buffer fills
+    static GameIO script(Reader script, Writer out) {
+        return new GameIO(script, out, false);
+    }
+
+    // output only: the owner feeds input to the Game itself and drains out after every step
+    static GameIO sink(Writer out) {
+        return new GameIO(Reader.nullReader(), out, false, 256);
+    }
+
+    String next() {
+        while (true) {
+            int length = line.length();
+            while (position < length && Character.isWhitespace(line.charAt(position))) {
+                position++;
+            }
+            if (position < length) {
+                int start = position;
+                while (position < length && !Character.isWhitespace(line.charAt(position))) {
+                    position++;
+                }
+                return line.substring(start, position);
+            }
+            line = readLine();
+            position = 0;
+        }
+    }
+
+    void awaitEnter() throws IOException {
+        if (interactive) {
+            out.flush();
+        }
+        in.readLine();
+    }
+
+    void print(String str) {
+        out.print(str);
+    }
+
+    void println(String str) {
+        out.println(str);
+    }
+
+    void println() {
+        out.println();
+    }
+
+    void printf(String format, Object... args) {
+        out.printf(format, args);
+    }
+
+    void flush() {
+        out.flush();
+    }
+
+    private String readLine() {
+        if (interactive) {
+            out.flush();
+        }
+        try {
+            String next = in.readLine();
+            if (next == null) {
+                out.flush();
+                throw new NoSuchElementException();
+            }
+            return next;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package battleship;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Process-wide move counters and per-phase latencies of every Game. Nothing is measured until
+// enable() is called, and until then the move path pays one field read per phase:
+//
+//   long start = GameMetrics.start();
+//   ...
+//   GameMetrics.stop(GameMetrics.PARSE, start);
+class GameMetrics implements GameMetricsMXBean {
+
+    static final int PARSE = 0;
+    static final int PLACE = 1;
+    static final int SHOT = 2;
+    static final int RENDER = 3;
+    private static final String[] PHASES = {"parse", "place", "shot", "render"};
+    private static final String NAME = "battleship:type=GameMetrics";
+
+    static final GameMetrics INSTANCE = new GameMetrics();
+
+    private static volatile boolean enabled = false;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[PHASES.length];
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sinks = new LongAdder();
+    private final LongAdder invalidInputs = new LongAdder();
+
+    private GameMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    // starts collecting and publishes the metrics over JMX
+    static synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(INSTANCE, new ObjectName(NAME));
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register the game metrics", e);
+        }
+        enabled = true;
+    }
+
+    // stops collecting and withdraws the JMX bean; what was collected stays until reset()
+    static synchronized void disable() {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(NAME));
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister the game metrics", e);
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    // prints the report every period seconds from a daemon thread
+    static void dumpEvery(long period, PrintStream out) {
+        enable();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "battleship-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> out.println(INSTANCE.getReport()), period, period, TimeUnit.SECONDS);
+    }
+
+    // the start of a timed phase, or 0 when nothing is collected
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void stop(int phase, long start) {
+        if (start != 0) {
+            INSTANCE.latencies[phase].record(System.nanoTime() - start);
+        }
+    }
+
+    static void move(Game.Outcome outcome) {
+        if (!enabled) {
+            return;
+        }
+        INSTANCE.moves.increment();
+        switch (outcome) {
+            case MISS:
+                INSTANCE.misses.increment();
+                break;
+            case HIT:
+                INSTANCE.hits.increment();
+                break;
+            case SHIP_SUNK:
+            case ELIMINATED:
+            case WIN:
+                INSTANCE.hits.increment();
+                INSTANCE.sinks.increment();
+                break;
+        }
+    }
+
+    static void invalidInput() {
+        if (enabled) {
+            INSTANCE.invalidInputs.increment();
+        }
+    }
+
+    LatencyHistogram getLatency(int phase) {
+        return latencies[phase];
+    }
+
+    @Override
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getSinks() {
+        return sinks.sum();
+    }
+
+    @Override
+    public long getInvalidInputs() {
+        return invalidInputs.sum();
+    }
+
+    @Override
+    public Map<String, Long> getLatencies() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram histogram = latencies[i];
+            values.put(PHASES[i] + ".count", histogram.getCount());
+            values.put(PHASES[i] + ".mean", (long) histogram.mean());
+            values.put(PHASES[i] + ".p50", histogram.percentile(50));
+            values.put(PHASES[i] + ".p99", histogram.percentile(99));
+            values.put(PHASES[i] + ".max", histogram.getMax());
+        }
+        return values;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("moves=%d hits=%d misses=%d sinks=%d invalid=%d",
+                getMoves(), getHits(), getMisses(), getSinks(), getInvalidInputs()));
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram histogram = latencies[i];
+            report.append(String.format("%n%-6s count=%d mean=%.0fns p50=%dns p99=%dns max=%dns", PHASES[i],
+                    histogram.getCount(), histogram.mean(), histogram.percentile(50), histogram.percentile(99),
+                    histogram.getMax()));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        moves.reset();
+        hits.reset();
+        misses.reset();
+        sinks.reset();
+        invalidInputs.reset();
+    }
+}
+
+// Log-linear histogram of nanosecond latencies: exact below 16ns, then 8 buckets per power of two,
+// so a percentile is never more than 12.5% above the true value.
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int LINEAR = 2 << SUB_BITS;
+    private static final int BUCKETS = LINEAR + (64 - SUB_BITS - 1) * (1 << SUB_BITS);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // the upper bound of the bucket holding the given percentile, 0 when empty
+    long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * (1 << SUB_BITS) + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR) / (1 << SUB_BITS) + SUB_BITS + 1;
+        long sub = (bucket - LINEAR) % (1 << SUB_BITS);
+        long low = (1L << exponent) + (sub << (exponent - SUB_BITS));
+        return low + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
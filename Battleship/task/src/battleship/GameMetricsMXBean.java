@@ -0,0 +1,24 @@
+package battleship;
+
+import java.util.Map;
+
+// The JMX view of GameMetrics, registered as battleship:type=GameMetrics.
+public interface GameMetricsMXBean {
+
+    long getMoves();
+
+    long getHits();
+
+    long getMisses();
+
+    long getSinks();
+
+    long getInvalidInputs();
+
+    // "<phase>.count", "<phase>.mean", "<phase>.p50", "<phase>.p99" and "<phase>.max" in nanoseconds
+    Map<String, Long> getLatencies();
+
+    String getReport();
+
+    void reset();
+}
@@ -0,0 +1,655 @@
+package battleship;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hosts one hot-seat Game per TCP connection. The protocol is the console one, line by line: the
+// tokens of a line go to the game in order, and while the game waits for Enter any line counts
+// as Enter (tokens left on a line at that point are dropped). Sessions are spread over a few
+// selector threads and never block one, so idle connections only cost their Game and buffers.
+//
+// Games are numbered from 1 in connection order. With a spectator port open, a connection there
+// sends the number of a running game on one line and then receives its GameFeed records as they
+// come, starting with what is left of the game so far in the feed. A spectator that falls a whole
+// feed behind is disconnected. Spectators are spread over the workers like sessions, and a game
+// only wakes up the workers that have spectators of it. These numbers start again with every run;
+// the replay log gives games numbers of its own that stay unique across runs.
+//
+// With time limits set, every session has a turn clock, restarted whenever its game waits for a
+// new decision, and a game clock. The clocks of a worker's sessions all live on one TimerWheel
+// that the worker advances between selects, so they cost no threads and O(1) per restart.
+class GameServer implements Closeable {
+
+    private static final int MAX_LINE = 1024;
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+    // a standard game has at most 201 records
+    private static final int FEED_RECORDS = 512;
+    private static final long CLOCK_TICK = TimeUnit.MILLISECONDS.toNanos(100);
+    // one turn of the wheel is about 100 seconds
+    private static final int CLOCK_SLOTS = 1024;
+
+    private final ServerSocketChannel server;
+    private final Worker[] workers;
+    private final Thread acceptor;
+    private final int boardSize;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final AtomicInteger spectators = new AtomicInteger();
+    private final AtomicInteger gameIds = new AtomicInteger();
+    private final Map<Integer, GameFeed> feeds = new ConcurrentHashMap<>();
+    private ServerSocketChannel spectatorServer;
+    private Thread spectatorAcceptor;
+    private volatile ReplayLog replayLog;
+    private volatile boolean running = true;
+    // 0 for no limit
+    private long turnLimit = 0;
+    private long gameLimit = 0;
+    private Game.TimeoutAction timeoutAction = Game.TimeoutAction.FORFEIT;
+    // 0 for games between two people on one connection
+    private long computerBudget = 0;
+
+    GameServer(InetSocketAddress address, int workerCount, int boardSize) throws IOException {
+        this.boardSize = boardSize;
+        server = ServerSocketChannel.open();
+        server.bind(address, 4096);
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i);
+        }
+        acceptor = new Thread(() -> acceptLoop(server, false), "battleship-acceptor");
+    }
+
+    // call before start(); only games started after this get a feed
+    void openSpectatorPort(InetSocketAddress address) throws IOException {
+        spectatorServer = ServerSocketChannel.open();
+        spectatorServer.bind(address, 4096);
+        spectatorAcceptor = new Thread(() -> acceptLoop(spectatorServer, true), "battleship-spectator-acceptor");
+    }
+
+    // call before start(); a player who runs out of turn time gets action, a game out of time is over
+    void setTimeLimits(long turnLimit, long gameLimit, TimeUnit unit, Game.TimeoutAction action) {
+        this.turnLimit = unit.toNanos(turnLimit);
+        this.gameLimit = unit.toNanos(gameLimit);
+        this.timeoutAction = action;
+    }
+
+    // call before start(); every connection then plays the computer, which may think this long a shot
+    // on the worker thread
+    void setComputer(long budget, TimeUnit unit) {
+        this.computerBudget = unit.toNanos(budget);
+    }
+
+    void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        acceptor.start();
+        if (spectatorAcceptor != null) {
+            spectatorAcceptor.start();
+        }
+    }
+
+    int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    int getSpectatorPort() {
+        return spectatorServer.socket().getLocalPort();
+    }
+
+    int getSessionCount() {
+        return sessions.get();
+    }
+
+    int getSpectatorCount() {
+        return spectators.get();
+    }
+
+    // every game started after this call is written to the log
+    void setReplayLog(ReplayLog replayLog) {
+        this.replayLog = replayLog;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        if (spectatorServer != null) {
+            spectatorServer.close();
+        }
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel server, boolean spectator) {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = server.accept();
+                workers[next].register(channel, spectator);
+                next = (next + 1) % workers.length;
+            } catch (IOException e) {
+                if (running) {
+                    // usually out of file descriptors: back off instead of spinning on accept()
+                    System.err.println("Accept failed: " + e.getMessage());
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void drop(Connection connection, RuntimeException e) {
+        System.err.println("Dropped a connection: " + e);
+        connection.close();
+    }
+
+    // what a selection key of a worker is attached to
+    private interface Connection {
+
+        void read() throws IOException;
+
+        void write() throws IOException;
+
+        void close();
+    }
+
+    private class Worker implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<SocketChannel> pendingSpectators = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        // the spectators of this worker by feed, and the feeds with news for them
+        private final Map<GameFeed, Audience> audiences = new HashMap<>();
+        private final Queue<Audience> updated = new ConcurrentLinkedQueue<>();
+        private final TimerWheel clocks = new TimerWheel(CLOCK_TICK, CLOCK_SLOTS);
+
+        Worker(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "battleship-worker-" + index);
+            thread.setDaemon(true);
+        }
+
+        void register(SocketChannel channel, boolean spectator) {
+            (spectator ? pendingSpectators : pending).add(channel);
+            selector.wakeup();
+        }
+
+        void watch(GameFeed feed, Spectator spectator) {
+            audiences.computeIfAbsent(feed, Audience::new).spectators.add(spectator);
+        }
+
+        void unwatch(GameFeed feed, Spectator spectator) {
+            Audience audience = audiences.get(feed);
+            if (audience != null && audience.spectators.remove(spectator) && audience.spectators.isEmpty()) {
+                feed.removeListener(audience);
+                audiences.remove(feed);
+            }
+        }
+
+        // the spectators of one feed on this worker; the feed calls it on the game thread
+        private class Audience implements Runnable {
+
+            private final GameFeed feed;
+            private final List<Spectator> spectators = new ArrayList<>();
+            private final AtomicBoolean scheduled = new AtomicBoolean();
+
+            Audience(GameFeed feed) {
+                this.feed = feed;
+                feed.addListener(this);
+            }
+
+            @Override
+            public void run() {
+                if (scheduled.compareAndSet(false, true)) {
+                    updated.add(this);
+                    selector.wakeup();
+                }
+            }
+
+            void deliver() {
+                scheduled.set(false);
+                for (Spectator spectator : new ArrayList<>(spectators)) {
+                    try {
+                        spectator.write();
+                    } catch (IOException e) {
+                        spectator.close();
+                    } catch (RuntimeException e) {
+                        drop(spectator, e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (clocks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(clocks.getTickNanos())));
+                    }
+                } catch (IOException e) {
+                    break;
+                }
+                clocks.advance(System.nanoTime());
+                SocketChannel channel;
+                while ((channel = pending.poll()) != null) {
+                    open(channel);
+                }
+                while ((channel = pendingSpectators.poll()) != null) {
+                    openSpectator(channel);
+                }
+                Audience audience;
+                while ((audience = updated.poll()) != null) {
+                    audience.deliver();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        // a bug in one game must not take the other sessions of the worker down
+                        drop(connection, e);
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void openSpectator(SocketChannel channel) {
+            Spectator spectator = new Spectator(channel, this);
+            try {
+                channel.configureBlocking(false);
+                spectator.key = channel.register(selector, SelectionKey.OP_READ, spectator);
+                spectators.incrementAndGet();
+            } catch (IOException e) {
+                spectator.close();
+            }
+        }
+
+        private void open(SocketChannel channel) {
+            Session session;
+            try {
+                session = new Session(channel, this);
+            } catch (RuntimeException e) {
+                System.err.println("Dropped a connection: " + e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                session.key = channel.register(selector, SelectionKey.OP_READ, session);
+                sessions.incrementAndGet();
+                session.game.start();
+                session.startClocks();
+                session.drain();
+            } catch (IOException e) {
+                session.close();
+            } catch (RuntimeException e) {
+                drop(session, e);
+            }
+        }
+    }
+
+    private class Session implements Connection {
+
+        private final SocketChannel channel;
+        private final Worker worker;
+        private SelectionKey key;
+        private final StringWriter text = new StringWriter();
+        private final Game game;
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        private ByteBuffer out;
+        private boolean closed = false;
+        private TimerWheel.Timeout turnClock;
+        private TimerWheel.Timeout gameClock;
+        // the game's turn when the turn clock was last started
+        private int clockTurn;
+
+        Session(SocketChannel channel, Worker worker) {
+            this.channel = channel;
+            this.worker = worker;
+            this.game = new Game(boardSize, GameIO.sink(text));
+            if (computerBudget > 0) {
+                game.setComputer(1, new AnytimeShooter(computerBudget), new SplittableRandom());
+            }
+            int id = gameIds.incrementAndGet();
+            ReplayLog log = replayLog;
+            if (log != null) {
+                game.setReplayLog(log);
+            }
+            if (spectatorServer != null) {
+                GameFeed feed = new GameFeed(id, FEED_RECORDS);
+                game.setFeed(feed);
+                feeds.put(id, feed);
+            }
+        }
+
+        @Override
+        public void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                    handle(new String(in.array(), start, end - start, StandardCharsets.US_ASCII));
+                    start = i + 1;
+                }
+            }
+            in.position(start);
+            in.compact();
+            if (!in.hasRemaining()) {
+                // a line longer than the buffer is not a command
+                close();
+                return;
+            }
+            if (game.getTurn() != clockTurn) {
+                startTurnClock();
+            }
+            drain();
+        }
+
+        void startClocks() {
+            if (gameLimit > 0) {
+                gameClock = worker.clocks.schedule(gameLimit, () -> onClock(game::expire));
+            }
+            startTurnClock();
+        }
+
+        private void startTurnClock() {
+            clockTurn = game.getTurn();
+            if (turnClock != null) {
+                turnClock.cancel();
+            }
+            if (turnLimit == 0 || game.isFinished()) {
+                return;
+            }
+            turnClock = worker.clocks.schedule(turnLimit, () -> onClock(() -> {
+                game.timeOut(timeoutAction);
+                startTurnClock();
+            }));
+        }
+
+        // runs on the worker from inside TimerWheel.advance, which must not see an exception
+        private void onClock(Runnable action) {
+            try {
+                action.run();
+                drain();
+            } catch (IOException e) {
+                close();
+            } catch (RuntimeException e) {
+                drop(this, e);
+            }
+        }
+
+        private void handle(String line) {
+            if (game.isFinished()) {
+                return;
+            }
+            if (game.wantsEnter()) {
+                game.enter();
+                return;
+            }
+            int length = line.length();
+            int position = 0;
+            while (position < length && !game.wantsEnter() && !game.isFinished()) {
+                while (position < length && Character.isWhitespace(line.charAt(position))) {
+                    position++;
+                }
+                int tokenStart = position;
+                while (position < length && !Character.isWhitespace(line.charAt(position))) {
+                    position++;
+                }
+                if (tokenStart < position) {
+                    game.accept(line.substring(tokenStart, position));
+                }
+            }
+        }
+
+        void drain() throws IOException {
+            game.getIO().flush();
+            StringBuffer buffer = text.getBuffer();
+            if (buffer.length() > 0) {
+                byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+                buffer.setLength(0);
+                if (out == null || !out.hasRemaining()) {
+                    out = ByteBuffer.wrap(bytes);
+                } else if (out.remaining() + bytes.length > MAX_PENDING_OUTPUT) {
+                    close();
+                    return;
+                } else {
+                    ByteBuffer joined = ByteBuffer.allocate(out.remaining() + bytes.length);
+                    joined.put(out).put(bytes).flip();
+                    out = joined;
+                }
+            }
+            write();
+        }
+
+        @Override
+        public void write() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (out != null) {
+                channel.write(out);
+                if (out.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                out = null;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (game.isFinished()) {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+                sessions.decrementAndGet();
+            }
+            if (turnClock != null) {
+                turnClock.cancel();
+            }
+            if (gameClock != null) {
+                gameClock.cancel();
+            }
+            GameFeed feed = game.getFeed();
+            if (feed != null) {
+                feed.abandon();
+                feeds.remove(feed.getGame());
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Reads a game number, then streams that game's feed straight out of its ring.
+    private class Spectator implements Connection {
+
+        private final SocketChannel channel;
+        private final Worker worker;
+        private SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(16);
+        private GameFeed feed;
+        private GameFeed.Cursor cursor;
+        private boolean closed = false;
+
+        Spectator(SocketChannel channel, Worker worker) {
+            this.channel = channel;
+            this.worker = worker;
+        }
+
+        @Override
+        public void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            if (cursor != null) {
+                // spectators have nothing to say
+                in.clear();
+                return;
+            }
+            for (int i = 0; i < in.position(); i++) {
+                if (in.get(i) == '\n') {
+                    subscribe(new String(in.array(), 0, i, StandardCharsets.US_ASCII).trim());
+                    in.clear();
+                    return;
+                }
+            }
+            if (!in.hasRemaining()) {
+                close();
+            }
+        }
+
+        private void subscribe(String line) throws IOException {
+            try {
+                feed = feeds.get(Integer.parseInt(line));
+            } catch (NumberFormatException e) {
+                feed = null;
+            }
+            if (feed == null) {
+                close();
+                return;
+            }
+            cursor = feed.subscribe();
+            worker.watch(feed, this);
+            write();
+        }
+
+        @Override
+        public void write() throws IOException {
+            if (closed || cursor == null) {
+                return;
+            }
+            while (true) {
+                ByteBuffer records = cursor.next();
+                if (cursor.getLost() > 0) {
+                    close();
+                    return;
+                }
+                if (!records.hasRemaining()) {
+                    break;
+                }
+                int written = channel.write(records);
+                if (!cursor.advance(written)) {
+                    close();
+                    return;
+                }
+                if (records.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (cursor.isDone()) {
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (feed != null) {
+                worker.unwatch(feed, this);
+            }
+            if (key != null) {
+                key.cancel();
+                spectators.decrementAndGet();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7654;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        GameMetrics.enable();
+        GameServer gameServer = new GameServer(new InetSocketAddress(port), workers, Coordinate.STANDARD_SIZE);
+        // "-" for no spectator port
+        boolean spectators = args.length > 2 && !args[2].equals("-");
+        if (spectators) {
+            gameServer.openSpectatorPort(new InetSocketAddress(Integer.parseInt(args[2])));
+        }
+        if (args.length > 3) {
+            // seconds per turn, then per game (0 for none), then forfeit or auto-move
+            gameServer.setTimeLimits(Long.parseLong(args[3]), args.length > 4 ? Long.parseLong(args[4]) : 0,
+                    TimeUnit.SECONDS, args.length > 5 && args[5].equals("auto-move")
+                            ? Game.TimeoutAction.AUTO_MOVE : Game.TimeoutAction.FORFEIT);
+        }
+        if (args.length > 6) {
+            // milliseconds the computer thinks per shot; every connection plays it
+            gameServer.setComputer(Long.parseLong(args[6]), TimeUnit.MILLISECONDS);
+        }
+        gameServer.start();
+        System.out.println("Listening on port " + gameServer.getPort());
+        if (spectators) {
+            System.out.println("Spectators on port " + gameServer.getSpectatorPort());
+        }
+    }
+}
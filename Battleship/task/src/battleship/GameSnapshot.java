@@ -0,0 +1,198 @@
+package battleship;
+
+import java.util.Arrays;
+import java.util.List;
+
+// The byte format of Game.snapshot(). Numbers are unsigned varints, 7 bits a byte, low bits first.
+//
+//   byte version | size | byte touching | fleet length | salvo | players | byte phase + 1 | 0x10 when started
+//   current player | target + 1 | ship index | length + 1 of the half-entered placement, then its bytes
+//   then per battlefield:
+//     ships | per ship: (head << 1 | vertical) and length, in placement order
+//     shot cells, as a bitmap or as gaps between sorted cells, whichever is smaller
+//   eliminated players | each of them
+//   shots of the salvo entered so far | each cell
+//
+// Cells are row * size + col. Hits and misses are not told apart: a shot cell is a hit exactly when
+// a ship is on it, and shooting the cells again in any order rebuilds the battlefield as it was.
+// The i-th ship placed is of the i-th class of the fleet.
+class GameSnapshot {
+
+    static final int VERSION = 2;
+
+    private static final int GAPS = 0;
+    private static final int BITMAP = 1;
+
+    static class Writer {
+
+        private byte[] bytes = new byte[64];
+        private int length;
+
+        void writeByte(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        // null is allowed
+        void writeString(String value) {
+            if (value == null) {
+                writeInt(0);
+                return;
+            }
+            writeInt(value.length() + 1);
+            for (int i = 0; i < value.length(); i++) {
+                writeInt(value.charAt(i));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    static class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() {
+            if (position == bytes.length) {
+                throw new IllegalArgumentException("Truncated game snapshot");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        int readInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Corrupt game snapshot");
+        }
+
+        String readString() {
+            int length = readInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            StringBuilder value = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                value.append((char) readInt());
+            }
+            return value.toString();
+        }
+
+        boolean isAtEnd() {
+            return position == bytes.length;
+        }
+    }
+
+    static void writeBattlefield(Writer out, Battlefield battlefield) {
+        int size = battlefield.getSize();
+        List<Ship> ships = battlefield.getShips();
+        out.writeInt(ships.size());
+        for (Ship ship : ships) {
+            Coordinate head = ship.getHead();
+            out.writeInt((head.getRow() * size + head.getCol()) << 1
+                    | (ship.getOrientation() == Ship.Orientation.VERTICAL ? 1 : 0));
+            out.writeInt(ship.getLength());
+        }
+
+        int[] shots = battlefield.getShotCells();
+        long cells = (long) size * size;
+        // a gap takes at least one byte, so a bitmap wins once more than one cell in eight is shot
+        int gapBytes = 0;
+        for (int i = 0, previous = -1; i < shots.length && gapBytes * 8L < cells; previous = shots[i++]) {
+            gapBytes += varintLength(shots[i] - previous - 1);
+        }
+        if (gapBytes * 8L < cells) {
+            out.writeByte(GAPS);
+            out.writeInt(shots.length);
+            for (int i = 0, previous = -1; i < shots.length; previous = shots[i++]) {
+                out.writeInt(shots[i] - previous - 1);
+            }
+        } else {
+            out.writeByte(BITMAP);
+            int bits = 0;
+            int next = 0;
+            for (int cell = 0; cell < cells; cell++) {
+                if (next < shots.length && shots[next] == cell) {
+                    bits |= 1 << (cell & 7);
+                    next++;
+                }
+                if ((cell & 7) == 7 || cell == cells - 1) {
+                    out.writeByte(bits);
+                    bits = 0;
+                }
+            }
+        }
+    }
+
+    static Battlefield readBattlefield(Reader in, RuleSet rules) {
+        int size = rules.getSize();
+        ShipClass[] fleet = rules.getFleet();
+        Battlefield battlefield = new Battlefield(size, rules.isTouching());
+        int ships = in.readInt();
+        for (int i = 0; i < ships; i++) {
+            int head = in.readInt();
+            int length = in.readInt();
+            int cell = head >>> 1;
+            Ship.Orientation orientation = (head & 1) == 1 ? Ship.Orientation.VERTICAL : Ship.Orientation.HORIZONTAL;
+            if (i < fleet.length && fleet[i].getLength() == length) {
+                battlefield.addShip(new Ship(battlefield, cellCoordinate(cell, size), orientation, fleet[i]));
+            } else {
+                battlefield.addShip(new Ship(battlefield, cellCoordinate(cell, size), orientation, length));
+            }
+        }
+
+        long cells = (long) size * size;
+        int encoding = in.readByte();
+        if (encoding == GAPS) {
+            int count = in.readInt();
+            long cell = -1;
+            for (int i = 0; i < count; i++) {
+                cell += in.readInt() + 1L;
+                battlefield.shoot(cellCoordinate(cell, size));
+            }
+        } else if (encoding == BITMAP) {
+            for (long cell = 0; cell < cells; cell += 8) {
+                int bits = in.readByte();
+                for (; bits != 0; bits &= bits - 1) {
+                    battlefield.shoot(cellCoordinate(cell + Integer.numberOfTrailingZeros(bits), size));
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Corrupt game snapshot");
+        }
+        return battlefield;
+    }
+
+    private static Coordinate cellCoordinate(long cell, int size) {
+        if (cell < 0 || cell >= (long) size * size) {
+            throw new IllegalArgumentException("Corrupt game snapshot");
+        }
+        return Coordinate.of((int) (cell / size), (int) (cell % size));
+    }
+
+    private static int varintLength(int value) {
+        return value < 0 ? 5 : (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+    }
+}
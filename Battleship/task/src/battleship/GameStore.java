@@ -0,0 +1,634 @@
+package battleship;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+// Headless games kept as columns of primitives in memory-mapped files, so millions of games cost
+// page cache rather than heap. A store is a directory with one file per column:
+//
+//   games.winner    byte per game: the winning player, or -1 when nobody won
+//   games.shooter   byte per player per game: the index of its strategy in getStrategies()
+//   games.fleet     byte per ship per player per game, in fleet order: head cell | vertical << 7
+//   games.shots     long per game: where its shots end in the shot columns
+//   shots.cell      byte per shot: row * 10 + col, as in BitBattlefield
+//   shots.player    byte per shot: the player who fired it
+//   shots.outcome   byte per shot: the Game.Outcome ordinal
+//
+// and store.properties with the rule set, the strategy names and the counts, written on close.
+//
+// Writers stage whole games in a Batch on their own thread and append it in one go. Scans split
+// the games over a fork/join pool and only touch the columns they read.
+class GameStore implements Closeable {
+
+    static final int PLAYERS = 2;
+
+    private static final String HEADER = "store.properties";
+    private static final int LEAF_GAMES = 1 << 14;
+    private static final Game.Outcome[] OUTCOMES = Game.Outcome.values();
+
+    private final Path directory;
+    private final RuleSet rules;
+    private final int fleetLength;
+    private final boolean writable;
+    private final List<String> strategies;
+    private final Column winners;
+    private final Column shooters;
+    private final Column fleets;
+    private final Column shotEnds;
+    private final Column cells;
+    private final Column players;
+    private final Column outcomes;
+    private long games;
+    private long shots;
+
+    private GameStore(Path directory, RuleSet rules, List<String> strategies, long games, long shots,
+                      boolean writable) throws IOException {
+        this.directory = directory;
+        this.rules = rules;
+        this.fleetLength = rules.getFleet().length;
+        this.writable = writable;
+        this.strategies = strategies;
+        this.games = games;
+        this.shots = shots;
+        winners = new Column(directory.resolve("games.winner"), 1, games, writable);
+        shooters = new Column(directory.resolve("games.shooter"), 1, games * PLAYERS, writable);
+        fleets = new Column(directory.resolve("games.fleet"), 1, games * PLAYERS * fleetLength, writable);
+        shotEnds = new Column(directory.resolve("games.shots"), Long.BYTES, games, writable);
+        cells = new Column(directory.resolve("shots.cell"), 1, shots, writable);
+        players = new Column(directory.resolve("shots.player"), 1, shots, writable);
+        outcomes = new Column(directory.resolve("shots.outcome"), 1, shots, writable);
+    }
+
+    // an empty store in directory, replacing any store already there
+    static GameStore create(Path directory, RuleSet rules) throws IOException {
+        if (!rules.hasTables()) {
+            throw new IllegalArgumentException("Bit boards only go up to " + BitBattlefield.SIZE + "x" + BitBattlefield.SIZE);
+        }
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(HEADER));
+        return new GameStore(directory, rules, new ArrayList<>(), 0, 0, true);
+    }
+
+    // a store written earlier, read-only
+    static GameStore open(Path directory) throws IOException {
+        Properties header = new Properties();
+        try (Reader reader = Files.newBufferedReader(directory.resolve(HEADER), StandardCharsets.UTF_8)) {
+            header.load(reader);
+        }
+        List<String> strategies = new ArrayList<>();
+        for (String strategy : header.getProperty("strategies", "").split(",")) {
+            if (!strategy.trim().isEmpty()) {
+                strategies.add(strategy.trim());
+            }
+        }
+        return new GameStore(directory, RuleSet.parse(header, "stored"), strategies,
+                Long.parseLong(header.getProperty("games")), Long.parseLong(header.getProperty("shots")), false);
+    }
+
+    RuleSet getRules() {
+        return rules;
+    }
+
+    // the index of a strategy by name, added if it is new
+    synchronized int strategy(String name) {
+        int index = strategies.indexOf(name);
+        if (index >= 0) {
+            return index;
+        }
+        if (strategies.size() == Byte.MAX_VALUE) {
+            throw new IllegalStateException("Too many strategies in one store");
+        }
+        strategies.add(name);
+        return strategies.size() - 1;
+    }
+
+    synchronized List<String> getStrategies() {
+        return new ArrayList<>(strategies);
+    }
+
+    synchronized long getGames() {
+        return games;
+    }
+
+    synchronized long getShots() {
+        return shots;
+    }
+
+    Batch newBatch() {
+        return new Batch(fleetLength);
+    }
+
+    // adds the games of a batch after all others and empties the batch
+    synchronized void append(Batch batch) {
+        if (!writable) {
+            throw new IllegalStateException("The store is read-only");
+        }
+        winners.put(games, batch.winners, batch.games);
+        shooters.put(games * PLAYERS, batch.shooters, batch.games * PLAYERS);
+        fleets.put(games * PLAYERS * fleetLength, batch.fleets, batch.games * PLAYERS * fleetLength);
+        for (int game = 0; game < batch.games; game++) {
+            shotEnds.putLong(games + game, shots + batch.shotEnds[game]);
+        }
+        cells.put(shots, batch.cells, batch.shots);
+        players.put(shots, batch.players, batch.shots);
+        outcomes.put(shots, batch.outcomes, batch.shots);
+        games += batch.games;
+        shots += batch.shots;
+        batch.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        Column[] columns = {winners, shooters, fleets, shotEnds, cells, players, outcomes};
+        if (writable) {
+            Properties header = new Properties();
+            rules.store(header);
+            header.setProperty("strategies", String.join(",", strategies));
+            header.setProperty("games", String.valueOf(games));
+            header.setProperty("shots", String.valueOf(shots));
+            for (Column column : columns) {
+                column.finish();
+            }
+            // the header goes last: a store without one was never completed
+            try (Writer writer = Files.newBufferedWriter(directory.resolve(HEADER), StandardCharsets.UTF_8)) {
+                header.store(writer, null);
+            }
+        }
+        for (Column column : columns) {
+            column.close();
+        }
+    }
+
+    // The columns of one game, then of one shot. Safe to call from any number of threads.
+
+    int getWinner(long game) {
+        return winners.get(game);
+    }
+
+    int getStrategy(long game, int player) {
+        return shooters.get(game * PLAYERS + player);
+    }
+
+    // the bit board cell of the head of a ship of player's fleet
+    int getHead(long game, int player, int ship) {
+        return fleets.get((game * PLAYERS + player) * fleetLength + ship) & 0x7F;
+    }
+
+    boolean isVertical(long game, int player, int ship) {
+        return fleets.get((game * PLAYERS + player) * fleetLength + ship) < 0;
+    }
+
+    long getFirstShot(long game) {
+        return game == 0 ? 0 : shotEnds.getLong(game - 1);
+    }
+
+    long getEndOfShots(long game) {
+        return shotEnds.getLong(game);
+    }
+
+    int getCell(long shot) {
+        return cells.get(shot);
+    }
+
+    Coordinate getCoordinate(long shot) {
+        int cell = cells.get(shot);
+        return BitBattlefield.coordinate(cell);
+    }
+
+    int getPlayer(long shot) {
+        return players.get(shot);
+    }
+
+    Game.Outcome getOutcome(long shot) {
+        return OUTCOMES[outcomes.get(shot)];
+    }
+
+    // player's field at the end of a game: its fleet with every shot the opponent fired at it
+    Battlefield getBattlefield(long game, int player) {
+        Battlefield battlefield = new Battlefield(rules.getSize(), rules.isTouching());
+        ShipClass[] fleet = rules.getFleet();
+        for (int ship = 0; ship < fleetLength; ship++) {
+            int head = getHead(game, player, ship);
+            Ship.Orientation orientation = isVertical(game, player, ship) ? Ship.Orientation.VERTICAL : Ship.Orientation.HORIZONTAL;
+            battlefield.addShip(new Ship(battlefield, BitBattlefield.coordinate(head),
+                    orientation, fleet[ship]));
+        }
+        for (long shot = getFirstShot(game); shot < getEndOfShots(game); shot++) {
+            if (getPlayer(shot) != player) {
+                battlefield.shoot(getCoordinate(shot));
+            }
+        }
+        return battlefield;
+    }
+
+    // A pass over some of the games. Each part of the split gets a scan of its own from the
+    // factory, and the parts are merged back into one.
+    interface Scan<S extends Scan<S>> {
+
+        void scan(GameStore store, long fromGame, long toGame);
+
+        void merge(S other);
+    }
+
+    <S extends Scan<S>> S scan(Supplier<S> factory) {
+        return scan(factory, ForkJoinPool.commonPool());
+    }
+
+    <S extends Scan<S>> S scan(Supplier<S> factory, ForkJoinPool pool) {
+        return pool.invoke(new Part<>(factory, 0, getGames()));
+    }
+
+    private class Part<S extends Scan<S>> extends RecursiveTask<S> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Supplier<S> factory;
+        private final long from;
+        private final long to;
+
+        Part(Supplier<S> factory, long from, long to) {
+            this.factory = factory;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected S compute() {
+            if (to - from > LEAF_GAMES) {
+                long middle = (from + to) >>> 1;
+                Part<S> left = new Part<>(factory, from, middle);
+                left.fork();
+                S scan = new Part<>(factory, middle, to).compute();
+                scan.merge(left.join());
+                return scan;
+            }
+            S scan = factory.get();
+            scan.scan(GameStore.this, from, to);
+            return scan;
+        }
+    }
+
+    // Games of one thread that are not in the store yet. HeadlessGame fills in the fleets and
+    // shots while it plays; endGame() closes each game.
+    static class Batch {
+
+        private final int fleetLength;
+        private int games;
+        private int shots;
+        private byte[] winners = new byte[64];
+        private byte[] shooters = new byte[64 * PLAYERS];
+        private byte[] fleets;
+        private int[] shotEnds = new int[64];
+        private byte[] cells = new byte[8192];
+        private byte[] players = new byte[8192];
+        private byte[] outcomes = new byte[8192];
+
+        private Batch(int fleetLength) {
+            this.fleetLength = fleetLength;
+            fleets = new byte[64 * PLAYERS * fleetLength];
+        }
+
+        int getGames() {
+            return games;
+        }
+
+        void fleet(int player, FleetGenerator generator, int[] placements) {
+            if (games == winners.length) {
+                int capacity = games * 2;
+                winners = Arrays.copyOf(winners, capacity);
+                shooters = Arrays.copyOf(shooters, capacity * PLAYERS);
+                fleets = Arrays.copyOf(fleets, capacity * PLAYERS * fleetLength);
+                shotEnds = Arrays.copyOf(shotEnds, capacity);
+            }
+            int offset = (games * PLAYERS + player) * fleetLength;
+            for (int ship = 0; ship < fleetLength; ship++) {
+                PlacementTable table = generator.getTable(ship);
+                int p = placements[ship];
+                fleets[offset + ship] = (byte) (table.head[p] | (table.vertical[p] ? 0x80 : 0));
+            }
+        }
+
+        void shot(int player, int cell, Game.Outcome outcome) {
+            if (shots == cells.length) {
+                cells = Arrays.copyOf(cells, shots * 2);
+                players = Arrays.copyOf(players, shots * 2);
+                outcomes = Arrays.copyOf(outcomes, shots * 2);
+            }
+            cells[shots] = (byte) cell;
+            players[shots] = (byte) player;
+            outcomes[shots] = (byte) outcome.ordinal();
+            shots++;
+        }
+
+        void endGame(int winner, int firstStrategy, int secondStrategy) {
+            winners[games] = (byte) winner;
+            shooters[games * PLAYERS] = (byte) firstStrategy;
+            shooters[games * PLAYERS + 1] = (byte) secondStrategy;
+            shotEnds[games] = shots;
+            games++;
+        }
+
+        private void clear() {
+            games = 0;
+            shots = 0;
+        }
+    }
+
+    // One file of fixed-width values, mapped in chunks. Values never straddle two chunks.
+    private static class Column implements Closeable {
+
+        private static final int CHUNK_BITS = 26;
+        private static final long CHUNK = 1L << CHUNK_BITS;
+
+        private final FileChannel channel;
+        private final int width;
+        private final boolean writable;
+        private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+        private long length;
+
+        Column(Path path, int width, long length, boolean writable) throws IOException {
+            this.width = width;
+            this.writable = writable;
+            this.length = length;
+            if (writable) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } else {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                if (channel.size() < length * width) {
+                    throw new IOException("Column " + path + " is shorter than the store header says");
+                }
+                long bytes = length * width;
+                chunks = new MappedByteBuffer[(int) ((bytes + CHUNK - 1) >>> CHUNK_BITS)];
+                for (int i = 0; i < chunks.length; i++) {
+                    long start = i * CHUNK;
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK, bytes - start));
+                    chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+        }
+
+        byte get(long index) {
+            return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & (CHUNK - 1)));
+        }
+
+        long getLong(long index) {
+            long position = index * Long.BYTES;
+            return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & (CHUNK - 1)));
+        }
+
+        void put(long index, byte[] values, int count) {
+            for (int done = 0; done < count; ) {
+                long position = index + done;
+                MappedByteBuffer chunk = chunkFor(position + 1);
+                int offset = (int) (position & (CHUNK - 1));
+                int n = (int) Math.min(count - done, CHUNK - offset);
+                ByteBuffer target = chunk.duplicate();
+                target.position(offset);
+                target.put(values, done, n);
+                done += n;
+            }
+            length = Math.max(length, index + count);
+        }
+
+        void putLong(long index, long value) {
+            long position = index * Long.BYTES;
+            chunkFor(position + Long.BYTES).putLong((int) (position & (CHUNK - 1)), value);
+            length = Math.max(length, index + 1);
+        }
+
+        // the chunk holding the byte before end, mapped on first use
+        private MappedByteBuffer chunkFor(long end) {
+            int chunk = (int) ((end - 1) >>> CHUNK_BITS);
+            if (chunk >= chunks.length) {
+                MappedByteBuffer[] grown = Arrays.copyOf(chunks, chunk + 1);
+                try {
+                    for (int i = chunks.length; i < grown.length; i++) {
+                        grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK, CHUNK);
+                        grown[i].order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot grow the game store", e);
+                }
+                chunks = grown;
+            }
+            return chunks[chunk];
+        }
+
+        // forces the values to disk and cuts the file down to them
+        void finish() throws IOException {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+            if (writable) {
+                channel.truncate(length * width);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Per strategy, how often each cell is shot at and hit.
+    static class Heatmap implements Scan<Heatmap> {
+
+        private final long[][] shots;
+        private final long[][] hits;
+
+        Heatmap(int strategies) {
+            shots = new long[strategies][BitBattlefield.CELLS];
+            hits = new long[strategies][BitBattlefield.CELLS];
+        }
+
+        @Override
+        public void scan(GameStore store, long fromGame, long toGame) {
+            long shot = store.getFirstShot(fromGame);
+            for (long game = fromGame; game < toGame; game++) {
+                int first = store.getStrategy(game, 0);
+                int second = store.getStrategy(game, 1);
+                for (long end = store.getEndOfShots(game); shot < end; shot++) {
+                    int strategy = store.getPlayer(shot) == 0 ? first : second;
+                    int cell = store.getCell(shot);
+                    shots[strategy][cell]++;
+                    if (store.getOutcome(shot) != Game.Outcome.MISS) {
+                        hits[strategy][cell]++;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void merge(Heatmap other) {
+            for (int strategy = 0; strategy < shots.length; strategy++) {
+                for (int cell = 0; cell < BitBattlefield.CELLS; cell++) {
+                    shots[strategy][cell] += other.shots[strategy][cell];
+                    hits[strategy][cell] += other.hits[strategy][cell];
+                }
+            }
+        }
+
+        long getShots(int strategy, int cell) {
+            return shots[strategy][cell];
+        }
+
+        long getHits(int strategy, int cell) {
+            return hits[strategy][cell];
+        }
+    }
+
+    // Per strategy, the games it won and the shots it took to win them.
+    static class TurnsToWin implements Scan<TurnsToWin> {
+
+        private final long[] wins;
+        private final long[] turns;
+
+        TurnsToWin(int strategies) {
+            wins = new long[strategies];
+            turns = new long[strategies];
+        }
+
+        @Override
+        public void scan(GameStore store, long fromGame, long toGame) {
+            long shot = store.getFirstShot(fromGame);
+            for (long game = fromGame; game < toGame; game++) {
+                int winner = store.getWinner(game);
+                long end = store.getEndOfShots(game);
+                if (winner < 0) {
+                    shot = end;
+                    continue;
+                }
+                int count = 0;
+                for (; shot < end; shot++) {
+                    if (store.getPlayer(shot) == winner) {
+                        count++;
+                    }
+                }
+                int strategy = store.getStrategy(game, winner);
+                wins[strategy]++;
+                turns[strategy] += count;
+            }
+        }
+
+        @Override
+        public void merge(TurnsToWin other) {
+            for (int strategy = 0; strategy < wins.length; strategy++) {
+                wins[strategy] += other.wins[strategy];
+                turns[strategy] += other.turns[strategy];
+            }
+        }
+
+        long getWins(int strategy) {
+            return wins[strategy];
+        }
+
+        double meanTurns(int strategy) {
+            return wins[strategy] == 0 ? 0 : (double) turns[strategy] / wins[strategy];
+        }
+    }
+
+    // Per strategy, how many hits a shooter scored since its last sink when it sank a ship, the
+    // sinking shot included. A ship of length n takes n of them unless others were hit meanwhile.
+    static class HitsBeforeSunk implements Scan<HitsBeforeSunk> {
+
+        private final long[][] histogram;
+
+        HitsBeforeSunk(int strategies) {
+            histogram = new long[strategies][BitBattlefield.CELLS + 1];
+        }
+
+        @Override
+        public void scan(GameStore store, long fromGame, long toGame) {
+            int[] hits = new int[PLAYERS];
+            long shot = store.getFirstShot(fromGame);
+            for (long game = fromGame; game < toGame; game++) {
+                hits[0] = 0;
+                hits[1] = 0;
+                for (long end = store.getEndOfShots(game); shot < end; shot++) {
+                    Game.Outcome outcome = store.getOutcome(shot);
+                    if (outcome == Game.Outcome.MISS) {
+                        continue;
+                    }
+                    int player = store.getPlayer(shot);
+                    hits[player]++;
+                    if (outcome != Game.Outcome.HIT) {
+                        histogram[store.getStrategy(game, player)][Math.min(hits[player], BitBattlefield.CELLS)]++;
+                        hits[player] = 0;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void merge(HitsBeforeSunk other) {
+            for (int strategy = 0; strategy < histogram.length; strategy++) {
+                for (int hits = 0; hits <= BitBattlefield.CELLS; hits++) {
+                    histogram[strategy][hits] += other.histogram[strategy][hits];
+                }
+            }
+        }
+
+        long[] getHistogram(int strategy) {
+            return histogram[strategy].clone();
+        }
+    }
+
+    // prints the analyses of a store written by Simulation
+    public static void main(String[] args) throws IOException {
+        try (GameStore store = open(Paths.get(args.length > 0 ? args[0] : "games"))) {
+            List<String> names = store.getStrategies();
+            int count = names.size();
+            System.out.printf("%d games, %d shots, rules %s%n", store.getGames(), store.getShots(), store.getRules().getName());
+
+            long start = System.nanoTime();
+            Heatmap heatmap = store.scan(() -> new Heatmap(count));
+            TurnsToWin turnsToWin = store.scan(() -> new TurnsToWin(count));
+            HitsBeforeSunk hitsBeforeSunk = store.scan(() -> new HitsBeforeSunk(count));
+            long elapsed = System.nanoTime() - start;
+
+            int size = store.getRules().getSize();
+            for (int strategy = 0; strategy < count; strategy++) {
+                System.out.printf("%s: %d wins, turns mean %.2f%n", names.get(strategy),
+                        turnsToWin.getWins(strategy), turnsToWin.meanTurns(strategy));
+                System.out.println("  hit rate per cell, %:");
+                for (int row = 0; row < size; row++) {
+                    StringBuilder line = new StringBuilder("  ");
+                    for (int col = 0; col < size; col++) {
+                        int cell = BitBattlefield.cell(row, col);
+                        long shots = heatmap.getShots(strategy, cell);
+                        line.append(String.format(" %5.1f", shots == 0 ? 0 : 100.0 * heatmap.getHits(strategy, cell) / shots));
+                    }
+                    System.out.println(line);
+                }
+                long[] histogram = hitsBeforeSunk.getHistogram(strategy);
+                StringBuilder line = new StringBuilder("  hits before a sink:");
+                for (int hits = 1; hits < histogram.length; hits++) {
+                    if (histogram[hits] > 0) {
+                        line.append(' ').append(hits).append('=').append(histogram[hits]);
+                    }
+                }
+                System.out.println(line);
+            }
+            System.out.printf("scanned in %.2f s%n", elapsed / 1e9);
+        }
+    }
+}
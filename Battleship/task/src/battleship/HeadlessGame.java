@@ -0,0 +1,85 @@
+package battleship;
+
+import java.util.SplittableRandom;
+
+// Plays a whole game between two shooters on bit boards, with the same turn order and outcomes as Game.play().
+class HeadlessGame {
+
+    static final int MAX_MOVES = 10_000;
+    private static final Placer UNIFORM = new UniformPlacer();
+
+    private final RuleSet rules;
+    private final FleetGenerator generator;
+    private final int[] placements;
+    private final BitBattlefield[] battlefields;
+    private final int[] shots = new int[2];
+    private int moves;
+    private GameStore.Batch recorder;
+
+    HeadlessGame(RuleSet rules) {
+        if (rules.getSalvo() != 1) {
+            // a shooter learns what each shot did before it picks the next one
+            throw new IllegalArgumentException("Shooters fire one shot a turn");
+        }
+        this.rules = rules;
+        this.generator = new FleetGenerator(rules);
+        this.placements = new int[rules.getFleet().length];
+        this.battlefields = new BitBattlefield[]{new BitBattlefield(rules.isTouching()), new BitBattlefield(rules.isTouching())};
+    }
+
+    // fleets and shots of the games played from now on go to recorder, null for none; the caller ends each game in it
+    void setRecorder(GameStore.Batch recorder) {
+        this.recorder = recorder;
+    }
+
+    // returns the index of the winner, or -1 if nobody won within MAX_MOVES
+    int play(Shooter first, Shooter second, SplittableRandom random) {
+        return play(first, UNIFORM, second, UNIFORM, random);
+    }
+
+    // each player places its own fleet with its placer; first moves first
+    int play(Shooter first, Placer firstPlacer, Shooter second, Placer secondPlacer, SplittableRandom random) {
+        Shooter[] shooters = {first, second};
+        Placer[] placers = {firstPlacer, secondPlacer};
+        for (int i = 0; i < 2; i++) {
+            battlefields[i].reset();
+            placers[i].place(generator, random, placements);
+            generator.placeAll(placements, battlefields[i]);
+            if (recorder != null) {
+                recorder.fleet(i, generator, placements);
+            }
+            shooters[i].newGame(rules, random);
+            shots[i] = 0;
+        }
+
+        int current_player = 0;
+        for (moves = 1; moves <= MAX_MOVES; moves++) {
+            Shooter shooter = shooters[current_player];
+            int cell = shooter.nextShot();
+            Game.Outcome outcome = battlefields[(current_player + 1) % 2].fire(cell);
+            shots[current_player]++;
+            if (recorder != null) {
+                recorder.shot(current_player, cell, outcome);
+            }
+            shooter.onShot(cell, outcome);
+            if (outcome == Game.Outcome.WIN) {
+                return current_player;
+            }
+            current_player = (current_player + 1) % 2;
+        }
+        moves = MAX_MOVES;
+        return -1;
+    }
+
+    int getShots(int player) {
+        return shots[player];
+    }
+
+    int getMoves() {
+        return moves;
+    }
+
+    BitBattlefield getBattlefield(int player) {
+        return battlefields[player];
+    }
+}
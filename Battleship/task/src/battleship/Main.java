@@ -1,144 +1,840 @@
 package battleship;
 
+import java.io.FileReader;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.OutputStreamWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Main {
 
-    public static void main(String[] args) {
-        Game game = new Game();
+    public static void main(String[] args) throws IOException {
+        RuleSet rules = RuleSet.STANDARD;
+        int size = 0;
+        int players = 2;
+        String script = null;
+        String log = null;
+        double thinkMillis = 0;
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("--size".equals(args[i])) {
+                size = Integer.parseInt(args[++i]);
+            } else if ("--rules".equals(args[i])) {
+                rules = RuleSet.load(Paths.get(args[++i]));
+            } else if ("--players".equals(args[i])) {
+                players = Integer.parseInt(args[++i]);
+            } else if ("--script".equals(args[i])) {
+                script = args[++i];
+            } else if ("--computer".equals(args[i])) {
+                // a single-player game; the computer thinks this many milliseconds per shot
+                thinkMillis = Double.parseDouble(args[++i]);
+            } else if ("--log".equals(args[i])) {
+                log = args[++i];
+            } else if ("--metrics".equals(args[i])) {
+                // the metrics report goes to stderr so the game transcript stays clean
+                GameMetrics.dumpEvery(Long.parseLong(args[++i]), System.err);
+            }
+        }
+        GameIO io = script == null
+                ? GameIO.console()
+                : GameIO.script(new FileReader(script), new OutputStreamWriter(System.out));
+        Game game = new Game(size > 0 ? rules.withSize(size) : rules, players, io);
+        if (thinkMillis > 0) {
+            game.setComputer(1, new AnytimeShooter((long) (thinkMillis * 1_000_000)), new SplittableRandom());
+        }
+        ReplayLog replayLog = log == null ? null : new ReplayLog(Paths.get(log));
+        if (replayLog != null) {
+            game.setReplayLog(replayLog);
+        }
         game.init();
         game.play();
+        io.flush();
+        if (replayLog != null) {
+            replayLog.close();
+        }
     }
 }
 
 class Game {
 
-    private final static int NUM_PLAYERS = 2;
-    Scanner scanner = new Scanner(System.in);
+    static final int MAX_PLAYERS = 100;
+    private final GameIO io;
+
+    Battlefield battlefield1;
+    Battlefield battlefield2;
+
+    Battlefield[] battlefields;
 
-    Battlefield battlefield1 = new Battlefield();
-    Battlefield battlefield2 = new Battlefield();
+    // ELIMINATED: the last ship of the opponent sank, but more than one player is left
+    enum Outcome {
+        WIN, SHIP_SUNK, MISS, HIT, ELIMINATED
+    }
+
+    // The game is a state machine fed one token (or one Enter) at a time, so the blocking console
+    // loop in init()/play() and the non-blocking GameServer sessions share the same rules and text.
+    private enum Phase {
+        PLACING, PASSING, SHOOTING, FINISHED
+    }
 
-    Battlefield[] battlefields = new Battlefield[]{battlefield1, battlefield2};
+    // what happens to a player who runs out of time, see timeOut()
+    enum TimeoutAction {
+        FORFEIT, AUTO_MOVE
+    }
+
+    private Phase phase;
+    private boolean started = false;
+    private final int players;
+    private int current_player = 0;
+    // The players still in the game form a circular list, so turns skip the eliminated ones in
+    // O(1). An eliminated player has no neighbours (-1).
+    private final int[] nextAlive;
+    private final int[] previousAlive;
+    private int alive;
+    // the opponent of the current turn, -1 until the player picks one
+    private int target = -1;
+    private final RuleSet rules;
+    private final ShipClass[] shipsClasses;
+    private int shipIndex;
+    private String headStr;
+    private GameFeed feed;
+    // counts the decisions the game has waited for, so a turn clock can tell a new one from a retry
+    private int turn = 0;
+    // the player the computer plays in a single-player game, or -1
+    private int computerPlayer = -1;
+    private Shooter computer;
+    private SplittableRandom computerRandom;
+    private FleetGenerator computerFleets;
+    // the shots of a salvo entered so far this turn, as row * size + col; they are fired together
+    private final int[] salvoCells;
+    private int salvoCount = 0;
+    private final ShotResult.Kind[] salvoKinds;
+    private final Outcome[] salvoOutcomes;
+
+    Game() {
+        this(Coordinate.STANDARD_SIZE, GameIO.console());
+    }
+
+    Game(int size, GameIO io) {
+        this(RuleSet.STANDARD.withSize(size), io);
+    }
+
+    Game(RuleSet rules, GameIO io) {
+        this(rules, 2, io);
+    }
+
+    // with more than two players, each turn starts by picking the opponent to shoot at
+    Game(RuleSet rules, int players, GameIO io) {
+        if (players < 2 || players > MAX_PLAYERS) {
+            throw new IllegalArgumentException("Invalid number of players");
+        }
+        this.io = io;
+        this.rules = rules;
+        this.shipsClasses = rules.getFleet();
+        this.players = players;
+        battlefields = new Battlefield[players];
+        nextAlive = new int[players];
+        previousAlive = new int[players];
+        for (int i = 0; i < players; i++) {
+            battlefields[i] = new Battlefield(rules.getSize(), rules.isTouching());
+            nextAlive[i] = (i + 1) % players;
+            previousAlive[i] = (i + players - 1) % players;
+        }
+        alive = players;
+        battlefield1 = battlefields[0];
+        battlefield2 = battlefields[1];
+        salvoCells = new int[rules.getMaxSalvo()];
+        salvoKinds = new ShotResult.Kind[salvoCells.length];
+        salvoOutcomes = new Outcome[salvoCells.length];
+    }
 
     public void init() {
-        for (int i = 0; i < NUM_PLAYERS; i++) {
-            this.init(battlefields[i], i + 1);
-            System.out.print("Press Enter and pass the move to another player");
+        start();
+        while (!started) {
+            step();
+        }
+    }
+
+    public void play() {
+        while (phase != Phase.FINISHED) {
+            step();
+        }
+    }
+
+    // reads whatever the game is waiting for from the channel and applies it
+    private void step() {
+        if (wantsEnter()) {
             try {
-                System.in.read();
+                io.awaitEnter();
             } catch (IOException e) {
-                System.out.println("Something weird happened");
+                io.println("Something weird happened");
             }
-            System.out.println("...");
+            enter();
+        } else {
+            accept(io.next());
         }
     }
 
-    public void init(Battlefield battlefield, int player) {
-        ShipClass[] shipsClasses = new ShipClass[5];
-        shipsClasses[0] = new ShipClass("Aircraft Carrier", 5);
-        shipsClasses[1] = new ShipClass("Battleship", 4);
-        shipsClasses[2] = new ShipClass("Submarine", 3);
-        shipsClasses[3] = new ShipClass("Cruiser", 3);
-        shipsClasses[4] = new ShipClass("Destroyer", 2);
+    void start() {
+        current_player = 0;
+        beginPlacement();
+    }
 
-        Scanner scanner = new Scanner(System.in);
-
-        System.out.printf("Player %d, place your ships on the game field\n", player);
-        System.out.println(battlefield.asString(true));
-
-        for (int i = 0; i < 5; i++) {
-            ShipClass shipClass = shipsClasses[i];
-            String prompt = String.format("\nEnter the coordinates the %s (%d cells)",
-                    shipClass.getType(), shipClass.getLength());
-            while (true) {
-                System.out.println(prompt);
-                String headStr = scanner.next();
-                String tailStr = scanner.next();
-                try {
-                    Ship ship = new Ship(battlefield, headStr, tailStr, shipClass);
-                    battlefield.addShip(ship);
-                    System.out.println();
-                    System.out.println(battlefield.asString(false));
-                    break;
-                } catch (IllegalArgumentException e) {
-                    prompt = "\n" + e.getMessage();
+    // Makes player the computer: shooter plays its turns, and its fleet is placed at random when its
+    // turn to place comes. Nobody has to pass the keyboard any more, so the game never waits for
+    // Enter. Only two-player games on fields up to 10x10 can be played against the computer. A
+    // computer that joins a game under way, e.g. one restored from a snapshot, first learns what
+    // its shots so far have shown.
+    void setComputer(int player, Shooter shooter, SplittableRandom random) {
+        if (players != 2) {
+            throw new IllegalArgumentException("The computer only plays two-player games");
+        }
+        if (!rules.hasTables()) {
+            throw new IllegalArgumentException("The computer only plays on fields up to "
+                    + BitBattlefield.SIZE + "x" + BitBattlefield.SIZE);
+        }
+        if (rules.getSalvo() != 1) {
+            throw new IllegalArgumentException("The computer fires one shot a turn");
+        }
+        // refuses a fleet that cannot be placed at random now rather than when it is the computer's turn
+        FleetGenerator fleets = new FleetGenerator(rules);
+        computerPlayer = player;
+        computer = shooter;
+        computerRandom = random;
+        computerFleets = fleets;
+        shooter.newGame(rules, random);
+        Battlefield opponent = battlefields[1 - player];
+        for (int cell : opponent.getShotCells()) {
+            if (opponent.cellChar(cell / opponent.getSize(), cell % opponent.getSize(), true) == 'M') {
+                shooter.onShot(BitBattlefield.fromField(cell, opponent.getSize()), Outcome.MISS);
+            }
+        }
+        for (Ship ship : opponent.getShips()) {
+            Coordinate[] coordinates = ship.getCoordinates();
+            for (int i = 0; i < coordinates.length; i++) {
+                Coordinate coordinate = coordinates[i];
+                if (opponent.cellChar(coordinate.getRow(), coordinate.getCol(), true) == 'X') {
+                    boolean sinks = ship.isSunk() && i == coordinates.length - 1;
+                    shooter.onShot(BitBattlefield.cell(coordinate.getRow(), coordinate.getCol()),
+                            sinks ? Outcome.SHIP_SUNK : Outcome.HIT);
                 }
             }
         }
     }
 
-    enum Outcome {
-        WIN, SHIP_SUNK, MISS, HIT
+    // the current player places their fleet; the computer's is placed at once
+    private void beginPlacement() {
+        if (current_player == computerPlayer) {
+            placeComputerFleet();
+            io.println("\nThe computer has placed its ships.\n");
+            nextPlacement();
+            return;
+        }
+        init(battlefields[current_player], current_player + 1);
     }
 
-    public void play() {
-        int current_player = 0;
-        while (true) {
-            Outcome outcome = makeMove(current_player);
-            switch (outcome) {
-                case WIN:
-                    System.out.println("You sank the last ship. You won. Congratulations!");
-                    break;
-                case SHIP_SUNK:
-                    System.out.print("You sank a ship!\n" +
-                            "Press Enter and pass the move to another player");
-                    break;
-                case HIT:
-                    System.out.print("You hit a ship!\n" +
-                            "Press Enter and pass the move to another player");
-                    break;
-                case MISS:
-                    System.out.print("You missed!\n" +
-                            "Press Enter and pass the move to another player");
-                    break;
+    // after a fleet is placed, the next player places theirs or the game begins
+    private void nextPlacement() {
+        if (current_player < players - 1) {
+            current_player++;
+            beginPlacement();
+        } else {
+            started = true;
+            current_player = 0;
+            beginTurn();
+        }
+    }
+
+    private void placeComputerFleet() {
+        Battlefield battlefield = battlefields[computerPlayer];
+        int[] placements = new int[shipsClasses.length];
+        computerFleets.generate(computerRandom, placements);
+        for (int i = 0; i < placements.length; i++) {
+            PlacementTable table = computerFleets.getTable(i);
+            int p = placements[i];
+            Ship.Orientation orientation = table.vertical[p] ? Ship.Orientation.VERTICAL : Ship.Orientation.HORIZONTAL;
+            battlefield.addShip(new Ship(battlefield, Coordinate.of(table.row(p), table.col(p)), orientation, shipsClasses[i]));
+        }
+    }
+
+    // the computer's whole turn, told to the player as it happens
+    private void computerTurn() {
+        phase = Phase.SHOOTING;
+        target = nextAlive[current_player];
+        int cell = computer.nextShot();
+        String shot = BitBattlefield.coordinate(cell).toString();
+        Outcome outcome = makeMove(shot);
+        computer.onShot(cell, outcome);
+        switch (outcome) {
+            case WIN:
+                io.printf("The computer fires at %s and sinks your last ship. You lost!\n", shot);
+                phase = Phase.FINISHED;
+                return;
+            case SHIP_SUNK:
+                io.printf("The computer fires at %s and sinks your ship!\n\n", shot);
+                break;
+            case HIT:
+                io.printf("The computer fires at %s and hits your ship!\n\n", shot);
+                break;
+            default:
+                io.printf("The computer fires at %s and misses.\n\n", shot);
+                break;
+        }
+        current_player = nextAlive[current_player];
+        beginTurn();
+    }
+
+    // logs the game from here on and returns its number in the log
+    int setReplayLog(ReplayLog log) {
+        for (ShipClass shipClass : shipsClasses) {
+            if (shipClass.getLength() > ReplayLog.MAX_BYTE) {
+                throw new IllegalArgumentException("The replay log holds ships up to " + ReplayLog.MAX_BYTE + " cells long");
             }
-            if (outcome == Outcome.WIN) break;
-            current_player = (current_player + 1) % 2;
-            try {
-                System.in.read();
-            } catch (IOException e) {
-                System.out.println("Something weird happened");
+        }
+        int gameId = log.game(battlefield1.getSize(), players, rules.isTouching());
+        for (int i = 0; i < players; i++) {
+            battlefields[i].setReplayLog(log, gameId, i);
+        }
+        return gameId;
+    }
+
+    // publishes the start and then every shot to the feed's spectators
+    void setFeed(GameFeed feed) {
+        this.feed = feed;
+        feed.start(battlefield1.getSize());
+    }
+
+    GameFeed getFeed() {
+        return feed;
+    }
+
+    boolean wantsEnter() {
+        return phase == Phase.PASSING;
+    }
+
+    boolean isFinished() {
+        return phase == Phase.FINISHED;
+    }
+
+    GameIO getIO() {
+        return io;
+    }
+
+    RuleSet getRules() {
+        return rules;
+    }
+
+    int getPlayers() {
+        return players;
+    }
+
+    int getAlivePlayers() {
+        return alive;
+    }
+
+    boolean isAlive(int player) {
+        return nextAlive[player] >= 0;
+    }
+
+    int getTurn() {
+        return turn;
+    }
+
+    // The player to move ran out of time. Waiting for Enter just goes on. Otherwise AUTO_MOVE makes
+    // a random legal move for them, as if they had typed it, and FORFEIT puts them out of the game.
+    void timeOut(TimeoutAction action) {
+        if (phase == Phase.PASSING) {
+            enter();
+        } else if (phase == Phase.PLACING) {
+            headStr = null;
+            if (action != TimeoutAction.AUTO_MOVE || !autoPlace()) {
+                forfeit();
+            }
+        } else if (phase == Phase.SHOOTING) {
+            if (action == TimeoutAction.AUTO_MOVE) {
+                autoShoot();
+            } else {
+                forfeit();
+            }
+        }
+    }
+
+    // the game as a whole ran out of time
+    void expire() {
+        if (phase != Phase.FINISHED) {
+            io.println("\nTime is up! The game is over.");
+            phase = Phase.FINISHED;
+        }
+    }
+
+    private void forfeit() {
+        io.printf("\nTime is up! Player %d is out of the game.\n", current_player + 1);
+        if (!started) {
+            // there is no game without every fleet
+            phase = Phase.FINISHED;
+            return;
+        }
+        int next = nextAlive[current_player];
+        eliminate(current_player);
+        if (alive == 1) {
+            io.printf("Player %d won. Congratulations!\n", next + 1);
+            phase = Phase.FINISHED;
+            return;
+        }
+        current_player = next;
+        io.print("Press Enter and pass the move to another player");
+        phase = Phase.PASSING;
+        turn++;
+    }
+
+    // places the current ship at the first legal position from a random one; false when none is left
+    private boolean autoPlace() {
+        Battlefield battlefield = battlefields[current_player];
+        int size = battlefield.getSize();
+        int length = shipsClasses[shipIndex].getLength();
+        long positions = 2L * size * size;
+        long first = ThreadLocalRandom.current().nextLong(positions);
+        for (long i = 0; i < positions; i++) {
+            long position = (first + i) % positions;
+            boolean vertical = position % 2 == 1;
+            int row = (int) (position / 2 / size);
+            int col = (int) (position / 2 % size);
+            int tailRow = vertical ? row + length - 1 : row;
+            int tailCol = vertical ? col : col + length - 1;
+            // check() lets a ship lie on top of another one, which a player would hardly do on purpose
+            if (battlefield.check(row, col, tailRow, tailCol, length) == Battlefield.Placement.OK
+                    && isFree(battlefield, row, col, tailRow, tailCol)) {
+                String head = Coordinate.of(row, col).toString();
+                String tail = Coordinate.of(tailRow, tailCol).toString();
+                io.printf("\nTime is up! The %s goes to %s %s\n", shipsClasses[shipIndex].getType(), head, tail);
+                accept(head);
+                accept(tail);
+                return true;
             }
+        }
+        return false;
+    }
 
-            System.out.println("...");
+    private static boolean isFree(Battlefield battlefield, int row, int col, int tailRow, int tailCol) {
+        for (int r = row; r <= tailRow; r++) {
+            for (int c = col; c <= tailCol; c++) {
+                if (battlefield.cellChar(r, c, false) != '~') {
+                    return false;
+                }
+            }
         }
+        return true;
     }
 
-    private Outcome makeMove(int current_player) {
+    // fires at a random cell the target has not been shot at, picking the next player as target if need be
+    private void autoShoot() {
+        if (target < 0) {
+            io.println("\nTime is up!");
+            chooseTarget(String.valueOf(nextAlive[current_player] + 1));
+        }
+        Battlefield battlefield = battlefields[target];
+        int size = battlefield.getSize();
+        long cells = (long) size * size;
+        long first = ThreadLocalRandom.current().nextLong(cells);
+        for (long i = 0; i < cells; i++) {
+            long cell = (first + i) % cells;
+            int row = (int) (cell / size);
+            int col = (int) (cell % size);
+            char shown = battlefield.cellChar(row, col, true);
+            if (shown != 'X' && shown != 'M' && !isAimedAt(row * size + col)) {
+                String shot = Coordinate.of(row, col).toString();
+                io.printf("\nTime is up! Firing at %s\n", shot);
+                accept(shot);
+                // the rest of a salvo too
+                if (salvoCount == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean isAimedAt(int cell) {
+        for (int i = 0; i < salvoCount; i++) {
+            if (salvoCells[i] == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Everything needed to carry on with the game later: a few dozen bytes for a standard one, see
+    // GameSnapshot. The IO, replay log and feed are not part of it.
+    byte[] snapshot() {
+        GameSnapshot.Writer out = new GameSnapshot.Writer();
+        out.writeByte(GameSnapshot.VERSION);
+        out.writeInt(rules.getSize());
+        out.writeByte(rules.isTouching() ? 1 : 0);
+        out.writeInt(shipsClasses.length);
+        out.writeInt(rules.getSalvo());
+        out.writeInt(players);
+        out.writeByte((phase == null ? 0 : phase.ordinal() + 1) | (started ? 0x10 : 0));
+        out.writeInt(current_player);
+        out.writeInt(target + 1);
+        out.writeInt(shipIndex);
+        out.writeString(headStr);
+        for (Battlefield battlefield : battlefields) {
+            GameSnapshot.writeBattlefield(out, battlefield);
+        }
+        out.writeInt(players - alive);
+        for (int i = 0; i < players; i++) {
+            if (!isAlive(i)) {
+                out.writeInt(i);
+            }
+        }
+        out.writeInt(salvoCount);
+        for (int i = 0; i < salvoCount; i++) {
+            out.writeInt(salvoCells[i]);
+        }
+        return out.toByteArray();
+    }
+
+    // the game a snapshot was taken of, waiting for the same input; rules must be the ones it was played by
+    static Game restore(RuleSet rules, GameIO io, byte[] snapshot) {
+        GameSnapshot.Reader in = new GameSnapshot.Reader(snapshot);
+        if (in.readByte() != GameSnapshot.VERSION) {
+            throw new IllegalArgumentException("Unknown game snapshot version");
+        }
+        if (in.readInt() != rules.getSize() || (in.readByte() == 1) != rules.isTouching()
+                || in.readInt() != rules.getFleet().length || in.readInt() != rules.getSalvo()) {
+            throw new IllegalArgumentException("The snapshot was taken of a game with other rules");
+        }
+        Game game = new Game(rules, in.readInt(), io);
+        int state = in.readByte();
+        int phase = state & 0x0F;
+        game.phase = phase == 0 ? null : Phase.values()[phase - 1];
+        game.started = (state & 0x10) != 0;
+        game.current_player = in.readInt();
+        game.target = in.readInt() - 1;
+        game.shipIndex = in.readInt();
+        game.headStr = in.readString();
+        for (int i = 0; i < game.players; i++) {
+            game.battlefields[i] = GameSnapshot.readBattlefield(in, rules);
+        }
+        game.battlefield1 = game.battlefields[0];
+        game.battlefield2 = game.battlefields[1];
+        int eliminated = in.readInt();
+        for (int i = 0; i < eliminated; i++) {
+            int player = in.readInt();
+            if (player >= game.players || !game.isAlive(player) || game.alive == 1) {
+                throw new IllegalArgumentException("Corrupt game snapshot");
+            }
+            game.eliminate(player);
+        }
+        game.salvoCount = in.readInt();
+        if (game.salvoCount > game.salvoCells.length) {
+            throw new IllegalArgumentException("Corrupt game snapshot");
+        }
+        for (int i = 0; i < game.salvoCount; i++) {
+            game.salvoCells[i] = in.readInt();
+        }
+        if (!in.isAtEnd() || game.current_player >= game.players || game.target >= game.players) {
+            throw new IllegalArgumentException("Corrupt game snapshot");
+        }
+        return game;
+    }
+
+    void accept(String token) {
+        switch (phase) {
+            case PLACING:
+                if (headStr == null) {
+                    headStr = token;
+                } else {
+                    String tailStr = token;
+                    String head = headStr;
+                    headStr = null;
+                    placeShip(battlefields[current_player], head, tailStr);
+                }
+                break;
+            case SHOOTING:
+                if (target < 0) {
+                    chooseTarget(token);
+                    break;
+                }
+                if (getSalvo() > 1) {
+                    aim(token);
+                    break;
+                }
+                Outcome outcome = makeMove(token);
+                if (outcome != null) {
+                    report(outcome);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    void enter() {
+        if (phase != Phase.PASSING) {
+            return;
+        }
+        io.println("...");
+        if (!started) {
+            nextPlacement();
+        } else {
+            beginTurn();
+        }
+    }
+
+    public void init(Battlefield battlefield, int player) {
+        phase = Phase.PLACING;
+        shipIndex = 0;
+        io.printf("Player %d, place your ships on the game field\n", player);
+        long start = GameMetrics.start();
+        io.println(battlefield.asString(true));
+        GameMetrics.stop(GameMetrics.RENDER, start);
+        promptShip();
+    }
+
+    private void promptShip() {
+        turn++;
+        ShipClass shipClass = shipsClasses[shipIndex];
+        io.println(String.format("\nEnter the coordinates the %s (%d cells)",
+                shipClass.getType(), shipClass.getLength()));
+    }
+
+    private void placeShip(Battlefield battlefield, String headStr, String tailStr) {
+        ShipClass shipClass = shipsClasses[shipIndex];
+        long start = GameMetrics.start();
+        Battlefield.Placement placement = battlefield.check(headStr, tailStr, shipClass);
+        if (placement != Battlefield.Placement.OK) {
+            GameMetrics.invalidInput();
+            io.println("\n" + placement.message(shipClass));
+            return;
+        }
+        Ship ship = new Ship(battlefield, headStr, tailStr, shipClass);
+        GameMetrics.stop(GameMetrics.PARSE, start);
+
+        start = GameMetrics.start();
+        battlefield.addShip(ship);
+        GameMetrics.stop(GameMetrics.PLACE, start);
+
+        start = GameMetrics.start();
+        io.println();
+        io.println(battlefield.asString(false));
+        GameMetrics.stop(GameMetrics.RENDER, start);
+        shipIndex++;
+        if (shipIndex < shipsClasses.length) {
+            promptShip();
+        } else if (computer != null) {
+            nextPlacement();
+        } else {
+            io.print("Press Enter and pass the move to another player");
+            phase = Phase.PASSING;
+            turn++;
+        }
+    }
+
+    private void beginTurn() {
+        if (current_player == computerPlayer) {
+            computerTurn();
+            return;
+        }
         Battlefield currentPlayerBattlefield = battlefields[current_player];
-        Battlefield opponentPlayerBattlefield = battlefields[(current_player + 1) % 2];
-        System.out.println(opponentPlayerBattlefield.asString(true));
-        System.out.println("---------------------");
-        System.out.println(currentPlayerBattlefield.asString(false));
+        phase = Phase.SHOOTING;
+        turn++;
+        if (players > 2) {
+            long start = GameMetrics.start();
+            io.println(currentPlayerBattlefield.asString(false));
+            GameMetrics.stop(GameMetrics.RENDER, start);
+            io.printf("Player %d, it's your turn. Choose the player to shoot at:\n", current_player + 1);
+            target = -1;
+            return;
+        }
+        target = nextAlive[current_player];
+        Battlefield opponentPlayerBattlefield = battlefields[target];
+        long start = GameMetrics.start();
+        io.println(opponentPlayerBattlefield.asString(true));
+        io.println("---------------------");
+        io.println(currentPlayerBattlefield.asString(false));
+        GameMetrics.stop(GameMetrics.RENDER, start);
+
+        if (getSalvo() > 1) {
+            io.printf("Player %d, it's your turn. Fire %d shots:\n", current_player + 1, getSalvo());
+        } else {
+            io.printf("Player %d, it's your turn:\n", current_player + 1);
+        }
+    }
+
+    // the shots the current player has this turn; their own fleet cannot change before the turn is over
+    private int getSalvo() {
+        int salvo = rules.getSalvo();
+        int shots = salvo == RuleSet.SALVO_SHIPS ? battlefields[current_player].getNumberOfShips() : salvo;
+        return Math.min(shots, rules.getMaxSalvo());
+    }
+
+    private void chooseTarget(String token) {
+        int player;
+        try {
+            player = Integer.parseInt(token) - 1;
+        } catch (NumberFormatException e) {
+            player = -1;
+        }
+        if (player < 0 || player >= players || player == current_player || !isAlive(player)) {
+            GameMetrics.invalidInput();
+            io.println("Error! Choose a player who is still in the game! Try again:\n");
+            return;
+        }
+        target = player;
+        long start = GameMetrics.start();
+        io.println(battlefields[target].asString(true));
+        GameMetrics.stop(GameMetrics.RENDER, start);
+        if (getSalvo() > 1) {
+            io.printf("Player %d, fire %d shots at player %d:\n", current_player + 1, getSalvo(), target + 1);
+        } else {
+            io.printf("Player %d, take your shot at player %d:\n", current_player + 1, target + 1);
+        }
+    }
 
-        System.out.printf("Player %d, it's your turn:\n", current_player + 1);
-        String coordStr;
+    private void eliminate(int player) {
+        int next = nextAlive[player];
+        int previous = previousAlive[player];
+        nextAlive[previous] = next;
+        previousAlive[next] = previous;
+        nextAlive[player] = -1;
+        previousAlive[player] = -1;
+        alive--;
+    }
+
+    private void report(Outcome outcome) {
+        endTurn(message(outcome), outcome);
+    }
+
+    private String message(Outcome outcome) {
+        switch (outcome) {
+            case WIN:
+                return "You sank the last ship. You won. Congratulations!";
+            case SHIP_SUNK:
+                return "You sank a ship!";
+            case HIT:
+                return "You hit a ship!";
+            case ELIMINATED:
+                return String.format("You sank the last ship of player %d. They are out!", target + 1);
+            default:
+                return "You missed!";
+        }
+    }
+
+    // outcome is WIN or ELIMINATED when the turn sank a fleet, anything else otherwise
+    private void endTurn(String message, Outcome outcome) {
+        // against the computer there is nobody to pass the move to
+        String pass = computer == null ? "\nPress Enter and pass the move to another player" : "\n\n";
+        if (outcome == Outcome.WIN) {
+            io.println(message);
+        } else {
+            io.print(message + pass);
+        }
+        if (outcome == Outcome.WIN) {
+            phase = Phase.FINISHED;
+            return;
+        }
+        current_player = nextAlive[current_player];
+        if (computer != null) {
+            beginTurn();
+            return;
+        }
+        phase = Phase.PASSING;
+        turn++;
+    }
+
+    // returns null when the coordinates are invalid and the player has to try again
+    private Outcome makeMove(String coordStr) {
+        Battlefield opponentPlayerBattlefield = battlefields[target];
         // TODO: move convert method to Battlefield
         Coordinate shot;
-        while (true) {
-            coordStr = scanner.next();
-            try {
-                shot = Ship.convertToFieldCoordinates(coordStr);
-                boolean hit = opponentPlayerBattlefield.shoot(shot);
-                if (hit) {
-                    if (opponentPlayerBattlefield.getNumberOfShips() == 0) {
-                        return Outcome.WIN;
-                    } else {
-                        if (opponentPlayerBattlefield.isShipSunk()) {
-                            opponentPlayerBattlefield.setShipSunk(false);
-                            return Outcome.SHIP_SUNK;
-                        } else {
-                           return Outcome.HIT;
-                        }
-                    }
-                } else {
-                    return Outcome.MISS;
-                }
-            } catch (IllegalArgumentException e) {
-                System.out.println("Error! You entered the wrong coordinates! Try again:\n");
+        long start = GameMetrics.start();
+        try {
+            shot = Ship.convertToFieldCoordinates(coordStr, opponentPlayerBattlefield.getSize());
+        } catch (IllegalArgumentException e) {
+            GameMetrics.invalidInput();
+            io.println("Error! You entered the wrong coordinates! Try again:\n");
+            return null;
+        }
+        GameMetrics.stop(GameMetrics.PARSE, start);
+
+        start = GameMetrics.start();
+        Outcome outcome = shoot(opponentPlayerBattlefield, shot);
+        GameMetrics.stop(GameMetrics.SHOT, start);
+        GameMetrics.move(outcome);
+        if (feed != null) {
+            feed.shot(current_player, target, shot.getRow(), shot.getCol(), outcome);
+        }
+        return outcome;
+    }
+
+    // one shot of a salvo; the last one fires them all
+    private void aim(String coordStr) {
+        Battlefield opponentPlayerBattlefield = battlefields[target];
+        int size = opponentPlayerBattlefield.getSize();
+        long start = GameMetrics.start();
+        int cell = Coordinate.parse(coordStr, 0, coordStr.length(), size);
+        if (cell < 0) {
+            GameMetrics.invalidInput();
+            io.println("Error! You entered the wrong coordinates! Try again:\n");
+            return;
+        }
+        GameMetrics.stop(GameMetrics.PARSE, start);
+        salvoCells[salvoCount++] = cell;
+        if (salvoCount < getSalvo()) {
+            return;
+        }
+
+        start = GameMetrics.start();
+        opponentPlayerBattlefield.shoot(salvoCells, salvoCount, salvoKinds);
+        GameMetrics.stop(GameMetrics.SHOT, start);
+        // a fleet sunk by the salvo decides how the turn ends; the shots after it hit nothing
+        Outcome turnOutcome = Outcome.MISS;
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < salvoCount; i++) {
+            int row = salvoCells[i] / size;
+            int col = salvoCells[i] % size;
+            salvoOutcomes[i] = outcome(salvoKinds[i]);
+            GameMetrics.move(salvoOutcomes[i]);
+            if (feed != null) {
+                feed.shot(current_player, target, row, col, salvoOutcomes[i]);
+            }
+            Outcome shown = salvoOutcomes[i];
+            if (shown == Outcome.WIN || shown == Outcome.ELIMINATED) {
+                turnOutcome = shown;
+                shown = Outcome.SHIP_SUNK;
             }
+            message.append(Coordinate.of(row, col)).append(": ").append(message(shown)).append('\n');
+        }
+        salvoCount = 0;
+        if (turnOutcome == Outcome.MISS) {
+            message.setLength(message.length() - 1);
+        } else {
+            message.append(message(turnOutcome));
+        }
+        endTurn(message.toString(), turnOutcome);
+    }
+
+    private Outcome shoot(Battlefield opponentPlayerBattlefield, Coordinate shot) {
+        return outcome(opponentPlayerBattlefield.shoot(shot).getKind());
+    }
+
+    private Outcome outcome(ShotResult.Kind kind) {
+        switch (kind) {
+            case WIN:
+                eliminate(target);
+                return alive == 1 ? Outcome.WIN : Outcome.ELIMINATED;
+            case SUNK:
+                return Outcome.SHIP_SUNK;
+            case HIT:
+                return Outcome.HIT;
+            default:
+                // the console game has always called shooting a cell twice a miss
+                return Outcome.MISS;
         }
     }
 }
@@ -167,64 +863,192 @@ class BattlefieldCell {
         this.status = CellStatus.SHIP;
     }
 
+    Ship getShip() {
+        return ship;
+    }
+
+    boolean isSunk() {
+        return ship != null && ship.isSunk();
+    }
+
     public CellStatus getStatus() {
         return status;
     }
 
     public void setStatus(CellStatus status) {
         this.status = status;
-        if (ship != null) {
-            ship.hit();
-        }
     }
 
-    public String toString() {
+    public char toChar() {
         switch (status) {
-            case UNKNOWN:
-                return "~";
             case SHIP:
-                return "O";
+                return 'O';
             case HIT:
-                return "X";
+                return 'X';
             case MISS:
-                return "M";
+                return 'M';
             default:
-                return "";
+                return '~';
         }
     }
+
+    public String toString() {
+        return String.valueOf(toChar());
+    }
 }
 
 class Battlefield {
 
-    private final int SIZE = 10;
-    private final BattlefieldCell[][] field = new BattlefieldCell[SIZE][SIZE];
+    // above this many cells only the cells that hold a ship, a border or a shot are stored
+    static final long DENSE_LIMIT = 64 * 64;
+
+    // What check() finds wrong with a placement, in the order the console game reports it.
+    // Checking allocates nothing, so invalid attempts cost no more than valid ones.
+    enum Placement {
+        OK(""),
+        INVALID_COORDINATES("Invalid ship coordinates"),
+        OUT_OF_BOUNDS("Error! Invalid ship coordinates"),
+        NOT_IN_LINE("Error! Wrong ship location! Try again:"),
+        WRONG_LENGTH("Error! Wrong length of the %s! Try again:\n"),
+        TOO_CLOSE("Error! You placed it too close to another one. Try again:\n");
+
+        private final String message;
+
+        Placement(String message) {
+            this.message = message;
+        }
+
+        String message(ShipClass shipClass) {
+            return this == WRONG_LENGTH ? String.format(message, shipClass.getType()) : message;
+        }
+    }
+
+    private final int size;
+    // whether ships may be placed next to each other
+    private final boolean touching;
+    private final CellStore field;
+    private final BoardRenderer renderer;
+    // in placement order, which decides who owns a cell that two touching ships share
+    private final List<Ship> ships = new ArrayList<>();
     private int numberOfShips = 0;
 
-    private boolean shipSunk = false;
+    // ships still afloat per class, and the ship cells not hit yet, kept up to date shot by shot
+    private final Map<ShipClass, int[]> afloat = new HashMap<>();
+    private int hitPoints = 0;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    private ReplayLog log;
+    private int logGame;
+    private int logBoard;
+
+    // told about ships going down, on the thread that shoots
+    interface Listener {
+
+        default void shipSunk(Ship ship) {
+        }
+
+        // after shipSunk() for the last ship: whoever fired wins, or in a free-for-all the owner is out
+        default void fleetSunk(Ship ship) {
+        }
+    }
 
     Battlefield() {
-        for (int row = 0; row < SIZE; row++) {
-            for (int col = 0; col < SIZE; col++) {
-                field[row][col] = new BattlefieldCell();
-            }
+        this(Coordinate.STANDARD_SIZE);
+    }
+
+    Battlefield(int size) {
+        this(size, false);
+    }
+
+    Battlefield(int size, boolean touching) {
+        if (size < 1 || size > Coordinate.MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid field size");
         }
+        this.size = size;
+        this.touching = touching;
+        this.field = (long) size * size <= DENSE_LIMIT ? new DenseCellStore(size) : new SparseCellStore(size);
+        this.renderer = new BoardRenderer(this);
     }
 
-    public boolean isShipSunk() {
-        return shipSunk;
+    int getSize() {
+        return size;
     }
 
-    public void setShipSunk(boolean shipSunk) {
-        this.shipSunk = shipSunk;
+    void setReplayLog(ReplayLog log, int game, int board) {
+        this.log = log;
+        this.logGame = game;
+        this.logBoard = board;
+    }
+
+    int storedCells() {
+        return field.storedCells();
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
     }
 
     public int getNumberOfShips() {
         return numberOfShips;
     }
 
+    // ships of this class still afloat; ships placed without a class are only in getNumberOfShips()
+    int getShipsAfloat(ShipClass shipClass) {
+        int[] count = afloat.get(shipClass);
+        return count == null ? 0 : count[0];
+    }
+
+    // ship cells not hit yet
+    int getHitPoints() {
+        return hitPoints;
+    }
+
+    List<Ship> getShips() {
+        return Collections.unmodifiableList(ships);
+    }
+
+    // the cells that have been shot at, hit or missed, as sorted row * size + col
+    int[] getShotCells() {
+        ShotCollector collector = new ShotCollector();
+        field.forEach(collector);
+        int[] shots = Arrays.copyOf(collector.shots, collector.count);
+        Arrays.sort(shots);
+        return shots;
+    }
+
+    private class ShotCollector implements CellStore.Visitor {
+
+        private int[] shots = new int[16];
+        private int count;
+
+        @Override
+        public void visit(int row, int col, BattlefieldCell cell) {
+            BattlefieldCell.CellStatus status = cell.getStatus();
+            if (status == BattlefieldCell.CellStatus.HIT || status == BattlefieldCell.CellStatus.MISS) {
+                if (count == shots.length) {
+                    shots = Arrays.copyOf(shots, count * 2);
+                }
+                shots[count++] = row * size + col;
+            }
+        }
+    }
+
     void addShip(Ship ship) {
         place(ship);
+        ships.add(ship);
         numberOfShips++;
+        if (ship.getShipClass() != null) {
+            afloat.computeIfAbsent(ship.getShipClass(), shipClass -> new int[1])[0]++;
+        }
+        if (log != null) {
+            Coordinate head = ship.getHead();
+            log.placement(logGame, logBoard, head.getRow(), head.getCol(), ship.getLength(),
+                    ship.getOrientation() == Ship.Orientation.VERTICAL);
+        }
     }
 
     private void place(Ship ship) {
@@ -232,16 +1056,23 @@ class Battlefield {
         Coordinate[] shipCoords = ship.getCoordinates();
 
         if (!canPlaceShip(shipCoords)) {
-            throw new IllegalArgumentException("Error! You placed it too close to another one. Try again:\n");
+            throw new IllegalArgumentException(Placement.TOO_CLOSE.message(null));
         }
 
         for (Coordinate coord : shipCoords) {
             int row = coord.getRow();
             int col = coord.getCol();
-            field[row][col].setShip(ship);
+            BattlefieldCell cell = field.getOrCreate(row, col);
+            if (cell.getStatus() != BattlefieldCell.CellStatus.SHIP) {
+                hitPoints++;
+            }
+            cell.setShip(ship);
+            renderer.cellChanged(row, col, true);
         }
 
-        setShipBorders(shipCoords);
+        if (!touching) {
+            setShipBorders(shipCoords);
+        }
     }
 
     private void setShipBorders(Coordinate[] shipCoords) {
@@ -250,8 +1081,8 @@ class Battlefield {
             for (Coordinate neighbor : neighbors) {
                 int row = neighbor.getRow();
                 int col = neighbor.getCol();
-                if (0 <= row && row < SIZE && 0 <= col && col < SIZE) {
-                    BattlefieldCell cell = field[row][col];
+                if (row < size && col < size) {
+                    BattlefieldCell cell = field.getOrCreate(row, col);
                     if (cell.getStatus() != BattlefieldCell.CellStatus.SHIP) {
                         cell.setBorder(true);
                     }
@@ -264,66 +1095,215 @@ class Battlefield {
         for (Coordinate coord : shipCoords) {
             int row = coord.getRow();
             int col = coord.getCol();
-            if (field[row][col].isBorder()) {
+            BattlefieldCell cell = field.get(row, col);
+            if (cell != null && cell.isBorder()) {
                 return false;
             }
         }
         return true;
     }
 
-    public String asString(boolean hidden) {
-        StringBuilder stringBuilder = new StringBuilder();
-
-        // build header
-        stringBuilder.append("  ");
-        for (int i = 1; i <= SIZE; i++) {
-            stringBuilder.append(i);
-            if (i != SIZE) {
-                stringBuilder.append(" ");
-            } else {
-                stringBuilder.append('\n');
+    // the checks of new Ship(this, head, tail, shipClass) followed by addShip, without placing anything
+    Placement check(CharSequence head, CharSequence tail, ShipClass shipClass) {
+        int headCell = Coordinate.parse(head, 0, head.length(), size);
+        if (headCell < 0) {
+            return headCell == Coordinate.OUT_OF_RANGE ? Placement.OUT_OF_BOUNDS : Placement.INVALID_COORDINATES;
+        }
+        int tailCell = Coordinate.parse(tail, 0, tail.length(), size);
+        if (tailCell < 0) {
+            return tailCell == Coordinate.OUT_OF_RANGE ? Placement.OUT_OF_BOUNDS : Placement.INVALID_COORDINATES;
+        }
+        return check(headCell / size, headCell % size, tailCell / size, tailCell % size, shipClass.getLength());
+    }
+
+    // head and tail are the two end cells of the ship, in either order
+    Placement check(int headRow, int headCol, int tailRow, int tailCol, int length) {
+        if (!inside(headRow, headCol) || !inside(tailRow, tailCol)) {
+            return Placement.OUT_OF_BOUNDS;
+        }
+        if (headRow != tailRow && headCol != tailCol) {
+            return Placement.NOT_IN_LINE;
+        }
+        if (Math.abs(tailRow - headRow) + Math.abs(tailCol - headCol) + 1 != length) {
+            return Placement.WRONG_LENGTH;
+        }
+        boolean vertical = headRow != tailRow;
+        return isTooClose(Math.min(headRow, tailRow), Math.min(headCol, tailCol), length, vertical)
+                ? Placement.TOO_CLOSE : Placement.OK;
+    }
+
+    // Checks count candidate ships of one length: candidate i starts at cell heads[i] (row * size + col,
+    // its top or left end) and runs down when vertical[i] is set. Sets bit i of legal when the ship
+    // fits on the field and is not too close to another one, clears it otherwise, and returns how many fit.
+    int checkAll(int length, int[] heads, boolean[] vertical, int count, long[] legal) {
+        int legalCount = 0;
+        for (int i = 0; i < count; i += 64) {
+            legal[i >>> 6] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int row = heads[i] / size;
+            int col = heads[i] % size;
+            int end = (vertical[i] ? row : col) + length - 1;
+            if (heads[i] >= 0 && row < size && length >= 1 && end < size && !isTooClose(row, col, length, vertical[i])) {
+                legal[i >>> 6] |= 1L << i;
+                legalCount++;
             }
         }
+        return legalCount;
+    }
 
-        // main part
-        for (int row = 0; row < SIZE; row++) {
-            stringBuilder.append((char) ('A' + row));
-            stringBuilder.append(" ");
-            for (int col = 0; col < SIZE; col++) {
-                BattlefieldCell cell = field[row][col];
-                if (hidden && cell.getStatus() == BattlefieldCell.CellStatus.SHIP) {
-                    stringBuilder.append('~');
-                } else {
-                    stringBuilder.append(field[row][col]);
-                }
-                if (col != SIZE - 1) {
-                    stringBuilder.append(' ');
-                }
+    private boolean inside(int row, int col) {
+        return row >= 0 && col >= 0 && row < size && col < size;
+    }
+
+    // canPlaceShip() for a ship that is only given by its position
+    private boolean isTooClose(int row, int col, int length, boolean vertical) {
+        for (int i = 0; i < length; i++) {
+            BattlefieldCell cell = vertical ? field.get(row + i, col) : field.get(row, col + i);
+            if (cell != null && cell.isBorder()) {
+                return true;
             }
-            if (row != SIZE - 1) {
-                stringBuilder.append('\n');
+        }
+        return false;
+    }
+
+    // whether the ship on this cell has been sunk, which its opponent has been told
+    boolean isSunk(int row, int col) {
+        BattlefieldCell cell = field.get(row, col);
+        return cell != null && cell.isSunk();
+    }
+
+    public String asString(boolean hidden) {
+        return renderer.render(hidden);
+    }
+
+    // ANSI cursor updates for the cells that changed since the previous call, see BoardRenderer.diff
+    String changes(boolean hidden, int top, int left) {
+        return renderer.diff(hidden, top, left);
+    }
+
+    char cellChar(int row, int col, boolean hidden) {
+        BattlefieldCell cell = field.get(row, col);
+        if (cell == null || (hidden && cell.getStatus() == BattlefieldCell.CellStatus.SHIP)) {
+            return '~';
+        }
+        return cell.toChar();
+    }
+
+    public ShotResult shoot(Coordinate shot) {
+        ShotResult.Kind kind = strike(shot.getRow(), shot.getCol());
+        switch (kind) {
+            case MISS:
+                return ShotResult.MISS;
+            case HIT:
+                return ShotResult.HIT;
+            case REPEAT:
+                return ShotResult.REPEAT;
+            default:
+                return new ShotResult(kind, field.get(shot.getRow(), shot.getCol()).getShip());
+        }
+    }
+
+    // Fires count shots at once, e.g. a salvo: cells are row * size + col, and kinds[i] gets what the
+    // i-th did. A cell twice in the batch is a REPEAT the second time. Returns how many ships went
+    // down. Allocates nothing.
+    int shoot(int[] cells, int count, ShotResult.Kind[] kinds) {
+        int sunk = 0;
+        for (int i = 0; i < count; i++) {
+            kinds[i] = strike(cells[i] / size, cells[i] % size);
+            if (kinds[i] == ShotResult.Kind.SUNK || kinds[i] == ShotResult.Kind.WIN) {
+                sunk++;
             }
         }
-        return stringBuilder.toString();
+        return sunk;
     }
 
-    public boolean shoot(Coordinate shot) {
-        BattlefieldCell cell = field[shot.getRow()][shot.getCol()];
-        if (cell.getStatus() == BattlefieldCell.CellStatus.SHIP) {
-            cell.setStatus(BattlefieldCell.CellStatus.HIT);
-            return true;
-        } else if (cell.getStatus() == BattlefieldCell.CellStatus.HIT) {
-            // TODO: Check what to do when ship's hit twice
-            return false;
-        } else {
-            cell.setStatus(BattlefieldCell.CellStatus.MISS);
-            return false;
+    private ShotResult.Kind strike(int row, int col) {
+        if (log != null) {
+            log.shot(logGame, logBoard, row, col);
+        }
+        BattlefieldCell cell = field.getOrCreate(row, col);
+        switch (cell.getStatus()) {
+            case SHIP:
+                cell.setStatus(BattlefieldCell.CellStatus.HIT);
+                renderer.cellChanged(row, col, false);
+                hitPoints--;
+                Ship ship = cell.getShip();
+                return ship.hit() ? sunk(ship) : ShotResult.Kind.HIT;
+            case HIT:
+            case MISS:
+                return ShotResult.Kind.REPEAT;
+            default:
+                cell.setStatus(BattlefieldCell.CellStatus.MISS);
+                renderer.cellChanged(row, col, false);
+                return ShotResult.Kind.MISS;
         }
     }
 
-    public void shipSunk() {
-        this.setShipSunk(true);
-        this.numberOfShips--;
+    private ShotResult.Kind sunk(Ship ship) {
+        numberOfShips--;
+        if (ship.getShipClass() != null) {
+            afloat.get(ship.getShipClass())[0]--;
+        }
+        for (Listener listener : listeners) {
+            listener.shipSunk(ship);
+        }
+        if (numberOfShips > 0) {
+            return ShotResult.Kind.SUNK;
+        }
+        for (Listener listener : listeners) {
+            listener.fleetSunk(ship);
+        }
+        return ShotResult.Kind.WIN;
+    }
+}
+
+// What a shot at a Battlefield did. Only sinking a ship makes a new one; a batch of shots only
+// reports the kinds.
+class ShotResult {
+
+    enum Kind {
+        MISS,
+        HIT,
+        // the cell had been shot at before; nothing changed
+        REPEAT,
+        SUNK,
+        // the last ship went down
+        WIN
+    }
+
+    static final ShotResult MISS = new ShotResult(Kind.MISS, null);
+    static final ShotResult HIT = new ShotResult(Kind.HIT, null);
+    static final ShotResult REPEAT = new ShotResult(Kind.REPEAT, null);
+
+    private final Kind kind;
+    private final Ship ship;
+
+    ShotResult(Kind kind, Ship ship) {
+        this.kind = kind;
+        this.ship = ship;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    boolean isHit() {
+        return kind == Kind.HIT || kind == Kind.SUNK || kind == Kind.WIN;
+    }
+
+    // the ship that went down, null unless SUNK or WIN
+    Ship getShip() {
+        return ship;
+    }
+
+    // null also for a ship placed without a class
+    ShipClass getShipClass() {
+        return ship == null ? null : ship.getShipClass();
+    }
+
+    public String toString() {
+        return ship == null || ship.getShipClass() == null ? kind.toString() : kind + " " + ship.getShipClass().getType();
     }
 }
 
@@ -334,23 +1314,26 @@ class Ship {
         HORIZONTAL
     }
 
-    private static final int SIZE = 10;
     private int sectionsRemaining;
 
     Battlefield battlefield;
+    // null for a ship known only by its length
+    private final ShipClass shipClass;
     private Coordinate head;
     private final int length;
     private final Orientation orientation;
+    private final Coordinate[] coordinates;
 
     Ship(Battlefield battlefield, String start, String finish, ShipClass shipClass) {
 
         this.battlefield = battlefield;
+        this.shipClass = shipClass;
 
-        this.head = convertToFieldCoordinates(start);
-        Coordinate tail = convertToFieldCoordinates(finish);
+        this.head = convertToFieldCoordinates(start, battlefield.getSize());
+        Coordinate tail = convertToFieldCoordinates(finish, battlefield.getSize());
 
         if (!isValid(this.head, tail)) {
-            throw new IllegalArgumentException("Error! Wrong ship location! Try again:");
+            throw new IllegalArgumentException(Battlefield.Placement.NOT_IN_LINE.message(shipClass));
         }
 
         if (!(this.head.getRow() <= tail.getRow() && this.head.getCol() <= tail.getCol())) {
@@ -370,85 +1353,140 @@ class Ship {
         }
 
         if (this.length != shipClass.getLength()) {
-            throw new IllegalArgumentException(String.format("Error! Wrong length of the %s! Try again:\n",
-                    shipClass.getType()));
+            throw new IllegalArgumentException(Battlefield.Placement.WRONG_LENGTH.message(shipClass));
         }
 
-        if (this.length == 0 || this.length > SIZE) {
+        if (this.length == 0 || this.length > battlefield.getSize()) {
             throw new IllegalArgumentException("Invalid ship length");
         }
         this.sectionsRemaining = length;
+        this.coordinates = buildCoordinates();
     }
 
-    public Coordinate[] getCoordinates() {
+    // a ship at a known position, e.g. one read back from a ReplayLog
+    Ship(Battlefield battlefield, Coordinate head, Orientation orientation, int length) {
+        this(battlefield, head, orientation, length, null);
+    }
+
+    Ship(Battlefield battlefield, Coordinate head, Orientation orientation, ShipClass shipClass) {
+        this(battlefield, head, orientation, shipClass.getLength(), shipClass);
+    }
+
+    private Ship(Battlefield battlefield, Coordinate head, Orientation orientation, int length, ShipClass shipClass) {
+        int start = orientation == Orientation.HORIZONTAL ? head.getCol() : head.getRow();
+        if (length < 1 || start + length > battlefield.getSize()) {
+            throw new IllegalArgumentException("Error! Wrong ship location! Try again:");
+        }
+        this.battlefield = battlefield;
+        this.shipClass = shipClass;
+        this.head = head;
+        this.orientation = orientation;
+        this.length = length;
+        this.sectionsRemaining = length;
+        this.coordinates = buildCoordinates();
+    }
+
+    private Coordinate[] buildCoordinates() {
         Coordinate[] coords = new Coordinate[length];
         int row = head.getRow();
         int col = head.getCol();
-        if (orientation == Orientation.HORIZONTAL) {
-            for (int i = 0; i < length; i++) {
-                coords[i] = new Coordinate(row, col + i);
-            }
-        } else {
-            for (int i = 0; i < length; i++) {
-                coords[i] = new Coordinate(row + i, col);
-            }
+        for (int i = 0; i < length; i++) {
+            coords[i] = orientation == Orientation.HORIZONTAL ? Coordinate.of(row, col + i) : Coordinate.of(row + i, col);
         }
         return coords;
     }
 
+    public Coordinate[] getCoordinates() {
+        return coordinates;
+    }
+
+    Coordinate getHead() {
+        return head;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    ShipClass getShipClass() {
+        return shipClass;
+    }
+
+    Orientation getOrientation() {
+        return orientation;
+    }
+
     static boolean isValid(Coordinate head, Coordinate tail) {
         return (head.getRow() == tail.getRow() || head.getCol() == tail.getCol());
     }
 
     static Coordinate convertToFieldCoordinates(String str) {
+        return convertToFieldCoordinates(str, Coordinate.STANDARD_SIZE);
+    }
 
-        if (str.length() < 2) {
-            throw new IllegalArgumentException("Invalid ship coordinates");
-        }
-
-        char rowChar = str.charAt(0);
-        if (rowChar < 'A' || rowChar > 'J') {
-            throw new IllegalArgumentException("Invalid ship coordinates");
+    static Coordinate convertToFieldCoordinates(String str, int size) {
+        int cell = Coordinate.parse(str, 0, str.length(), size);
+        if (cell == Coordinate.OUT_OF_RANGE) {
+            throw new IllegalArgumentException(Battlefield.Placement.OUT_OF_BOUNDS.message(null));
         }
-
-        int row = rowChar - 'A';
-        int col;
-        try {
-            col = Integer.parseInt(str.substring(1));
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Invalid ship coordinates");
-        }
-
-        if (col < 1 || col > 10) {
-            throw new IllegalArgumentException("Error! Invalid ship coordinates");
+        if (cell == Coordinate.INVALID) {
+            throw new IllegalArgumentException(Battlefield.Placement.INVALID_COORDINATES.message(null));
         }
-        col -= 1;
-
-        return new Coordinate(row, col);
+        return Coordinate.of(cell / size, cell % size);
     }
 
     public String toString() {
         return String.format("head = (%d, %d), length = %d\n", head.getRow(), head.getCol(), length);
     }
 
-    public void hit() {
-        sectionsRemaining--;
-        if (sectionsRemaining == 0) {
-            this.battlefield.shipSunk();
-        }
+    boolean isSunk() {
+        return sectionsRemaining == 0;
+    }
+
+    // returns whether this hit sank the ship
+    boolean hit() {
+        return --sectionsRemaining == 0;
     }
 }
 
 class Coordinate {
 
+    static final int STANDARD_SIZE = 10;
+    static final int MAX_SIZE = 10_000;
+    static final int INVALID = -1;
+    static final int OUT_OF_RANGE = -2;
+
+    // shared instances for the cells of any field up to this size (26x26 variants included)
+    private static final int CACHED = 32;
+    private static final Coordinate[] TABLE = new Coordinate[CACHED * CACHED];
+
+    static {
+        for (int row = 0; row < CACHED; row++) {
+            for (int col = 0; col < CACHED; col++) {
+                TABLE[row * CACHED + col] = new Coordinate(row, col);
+            }
+        }
+        for (Coordinate coordinate : TABLE) {
+            coordinate.neighbors = coordinate.buildNeighbors();
+        }
+    }
+
     private final int row;
     private final int col;
+    private Coordinate[] neighbors;
 
     Coordinate(int row, int col) {
         this.row = row;
         this.col = col;
     }
 
+    static Coordinate of(int row, int col) {
+        if (row < CACHED && col < CACHED) {
+            return TABLE[row * CACHED + col];
+        }
+        return new Coordinate(row, col);
+    }
+
     public int getRow() {
         return row;
     }
@@ -457,13 +1495,128 @@ class Coordinate {
         return col;
     }
 
+    // neighbours with non-negative coordinates; callers drop the ones past the edge of their field.
+    // The shared instances return a shared array, so don't modify it.
     Coordinate[] getNeighbors() {
-        Coordinate[] neighbors = new Coordinate[4];
-        neighbors[0] = new Coordinate(row, col - 1);
-        neighbors[1] = new Coordinate(row - 1, col);
-        neighbors[2] = new Coordinate(row, col + 1);
-        neighbors[3] = new Coordinate(row + 1, col);
-        return neighbors;
+        if (neighbors != null) {
+            return neighbors;
+        }
+        return buildNeighbors();
+    }
+
+    private Coordinate[] buildNeighbors() {
+        Coordinate[] candidates = new Coordinate[4];
+        int count = 0;
+        if (col > 0) candidates[count++] = of(row, col - 1);
+        if (row > 0) candidates[count++] = of(row - 1, col);
+        candidates[count++] = of(row, col + 1);
+        candidates[count++] = of(row + 1, col);
+        Coordinate[] result = new Coordinate[count];
+        System.arraycopy(candidates, 0, result, 0, count);
+        return result;
+    }
+
+    // Rows are lettered A..Z, AA..AZ, BA.. and so on; columns are numbered from 1.
+    static String rowName(int row) {
+        StringBuilder name = new StringBuilder();
+        for (int n = row + 1; n > 0; n = (n - 1) / 26) {
+            name.append((char) ('A' + (n - 1) % 26));
+        }
+        return name.reverse().toString();
+    }
+
+    public String toString() {
+        return rowName(row) + (col + 1);
+    }
+
+    // Parses a coordinate in str[from, to) into a cell index (row * size + col) without allocating.
+    // Returns INVALID for malformed input and OUT_OF_RANGE for a well-formed column outside 1..size,
+    // matching the two error messages of Ship.convertToFieldCoordinates.
+    static int parse(CharSequence str, int from, int to, int size) {
+        int index = from;
+        int row = 0;
+        while (index < to && str.charAt(index) >= 'A' && str.charAt(index) <= 'Z') {
+            row = row * 26 + str.charAt(index) - 'A' + 1;
+            index++;
+            if (row > size) {
+                return INVALID;
+            }
+        }
+        if (row == 0 || index == to) {
+            return INVALID;
+        }
+        boolean negative = false;
+        char first = str.charAt(index);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            index++;
+            if (index == to) {
+                return INVALID;
+            }
+        }
+        long value = 0;
+        for (; index < to; index++) {
+            int digit = str.charAt(index) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > 1L + Integer.MAX_VALUE) {
+                return INVALID;
+            }
+        }
+        return toCell(row - 1, negative ? -value : value, size);
+    }
+
+    static int parse(CharSequence str) {
+        return parse(str, 0, str.length(), STANDARD_SIZE);
+    }
+
+    // the same for ASCII bytes, e.g. straight from a network buffer; its own loop so that neither
+    // overload allocates or makes charAt polymorphic for the other
+    static int parse(byte[] bytes, int from, int to, int size) {
+        int index = from;
+        int row = 0;
+        while (index < to && bytes[index] >= 'A' && bytes[index] <= 'Z') {
+            row = row * 26 + bytes[index] - 'A' + 1;
+            index++;
+            if (row > size) {
+                return INVALID;
+            }
+        }
+        if (row == 0 || index == to) {
+            return INVALID;
+        }
+        boolean negative = false;
+        if (bytes[index] == '-' || bytes[index] == '+') {
+            negative = bytes[index] == '-';
+            index++;
+            if (index == to) {
+                return INVALID;
+            }
+        }
+        long value = 0;
+        for (; index < to; index++) {
+            int digit = bytes[index] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > 1L + Integer.MAX_VALUE) {
+                return INVALID;
+            }
+        }
+        return toCell(row - 1, negative ? -value : value, size);
+    }
+
+    private static int toCell(int row, long col, int size) {
+        if (col > Integer.MAX_VALUE || col < Integer.MIN_VALUE) {
+            return INVALID;
+        }
+        if (col < 1 || col > size) {
+            return OUT_OF_RANGE;
+        }
+        return row * size + (int) col - 1;
     }
 }
 
@@ -478,6 +1631,16 @@ class ShipClass {
         this.length = length;
     }
 
+    static ShipClass[] standardFleet() {
+        ShipClass[] shipsClasses = new ShipClass[5];
+        shipsClasses[0] = new ShipClass("Aircraft Carrier", 5);
+        shipsClasses[1] = new ShipClass("Battleship", 4);
+        shipsClasses[2] = new ShipClass("Submarine", 3);
+        shipsClasses[3] = new ShipClass("Cruiser", 3);
+        shipsClasses[4] = new ShipClass("Destroyer", 2);
+        return shipsClasses;
+    }
+
     public String getType() {
         return type;
     }
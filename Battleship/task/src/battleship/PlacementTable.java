@@ -0,0 +1,112 @@
+package battleship;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Every position a ship of one length can take on a BitBattlefield, with its cell mask, the mask
+// of the cells it makes unusable for other ships, and the reverse index from cell to placements.
+// Fields smaller than the bit board use its top left corner; cells keep their row * 10 + col numbers.
+class PlacementTable {
+
+    // tables by length, per field size and touching rule; built once and never modified
+    private static final Map<Integer, PlacementTable[]> COMPILED = new ConcurrentHashMap<>();
+    private static final PlacementTable[] TABLES = compile(BitBattlefield.SIZE, false);
+
+    final int size;
+    final boolean touching;
+    final int length;
+    final int count;
+    final int[] head;
+    final boolean[] vertical;
+    final long[] lo;
+    final long[] hi;
+    final long[] zoneLo;
+    final long[] zoneHi;
+    final int[][] cells;
+    final int[][] byCell;
+
+    private PlacementTable(int size, boolean touching, int length) {
+        int positions = size * (size - length + 1);
+        this.size = size;
+        this.touching = touching;
+        this.length = length;
+        this.count = length == 1 ? positions : 2 * positions;
+        head = new int[count];
+        vertical = new boolean[count];
+        lo = new long[count];
+        hi = new long[count];
+        zoneLo = new long[count];
+        zoneHi = new long[count];
+        cells = new int[count][length];
+
+        int p = 0;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                for (int v = 0; v < 2; v++) {
+                    boolean isVertical = v == 1;
+                    if ((isVertical && length == 1) || (isVertical ? row : col) + length > size) {
+                        continue;
+                    }
+                    head[p] = BitBattlefield.cell(row, col);
+                    vertical[p] = isVertical;
+                    lo[p] = BitBattlefield.maskLo(row, col, length, isVertical);
+                    hi[p] = BitBattlefield.maskHi(row, col, length, isVertical);
+                    // ships that may touch only block their own cells
+                    zoneLo[p] = touching ? lo[p] : lo[p] | BitBattlefield.neighborsLo(lo[p], hi[p]);
+                    zoneHi[p] = touching ? hi[p] : hi[p] | BitBattlefield.neighborsHi(lo[p], hi[p]);
+                    for (int i = 0; i < length; i++) {
+                        cells[p][i] = head[p] + i * (isVertical ? BitBattlefield.SIZE : 1);
+                    }
+                    p++;
+                }
+            }
+        }
+
+        int[] perCell = new int[BitBattlefield.CELLS];
+        for (int[] placementCells : cells) {
+            for (int cell : placementCells) {
+                perCell[cell]++;
+            }
+        }
+        byCell = new int[BitBattlefield.CELLS][];
+        for (int cell = 0; cell < BitBattlefield.CELLS; cell++) {
+            byCell[cell] = new int[perCell[cell]];
+            perCell[cell] = 0;
+        }
+        for (p = 0; p < count; p++) {
+            for (int cell : cells[p]) {
+                byCell[cell][perCell[cell]++] = p;
+            }
+        }
+    }
+
+    // the tables of every ship length for a size x size field, indexed by length
+    static PlacementTable[] compile(int size, boolean touching) {
+        if (size < 1 || size > BitBattlefield.SIZE) {
+            throw new IllegalArgumentException("Invalid field size");
+        }
+        return COMPILED.computeIfAbsent(size * 2 + (touching ? 1 : 0), key -> {
+            PlacementTable[] tables = new PlacementTable[size + 1];
+            for (int length = 1; length <= size; length++) {
+                tables[length] = new PlacementTable(size, touching, length);
+            }
+            return tables;
+        });
+    }
+
+    // the table of the standard 10x10 field where ships may not touch
+    static PlacementTable forLength(int length) {
+        if (length < 1 || length > BitBattlefield.SIZE) {
+            throw new IllegalArgumentException("Invalid ship length");
+        }
+        return TABLES[length];
+    }
+
+    int row(int placement) {
+        return BitBattlefield.row(head[placement]);
+    }
+
+    int col(int placement) {
+        return BitBattlefield.col(head[placement]);
+    }
+}
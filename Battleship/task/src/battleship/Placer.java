@@ -0,0 +1,96 @@
+package battleship;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A ship placement strategy for headless games: fills in one PlacementTable index per ship of the
+// generator's fleet, in fleet order.
+interface Placer {
+
+    void place(FleetGenerator generator, SplittableRandom random, int[] placements);
+}
+
+// Every legal fleet is equally likely.
+class UniformPlacer implements Placer {
+
+    @Override
+    public void place(FleetGenerator generator, SplittableRandom random, int[] placements) {
+        generator.generate(random, placements);
+    }
+}
+
+// A uniformly random fleet among the ones whose every ship passes a test on its cells, e.g. "touches
+// the edge of the field". Falls back to all placements for ship lengths the test leaves empty.
+class RestrictedPlacer implements Placer {
+
+    interface CellTest {
+
+        boolean test(int row, int col, int size);
+    }
+
+    private final CellTest cellTest;
+    private final boolean anyCell;
+    // candidate placement indices per table, and the sampler of the fleet per rule set, worked out
+    // the first time a rule set uses them
+    private final Map<PlacementTable, int[]> byTable = new ConcurrentHashMap<>();
+    private final Map<RuleSet, FleetGenerator.Sampler> byRules = new ConcurrentHashMap<>();
+
+    // anyCell: a ship passes when one of its cells passes, otherwise all of them have to
+    RestrictedPlacer(CellTest cellTest, boolean anyCell) {
+        this.cellTest = cellTest;
+        this.anyCell = anyCell;
+    }
+
+    static RestrictedPlacer edge() {
+        return new RestrictedPlacer(RestrictedPlacer::onEdge, true);
+    }
+
+    static RestrictedPlacer center() {
+        return new RestrictedPlacer((row, col, size) -> !onEdge(row, col, size), false);
+    }
+
+    private static boolean onEdge(int row, int col, int size) {
+        return row == 0 || col == 0 || row == size - 1 || col == size - 1;
+    }
+
+    @Override
+    public void place(FleetGenerator generator, SplittableRandom random, int[] placements) {
+        byRules.computeIfAbsent(generator.getRules(), rules -> sampler(generator)).generate(random, placements);
+    }
+
+    private FleetGenerator.Sampler sampler(FleetGenerator generator) {
+        int[][] candidates = new int[generator.getFleet().length][];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = byTable.computeIfAbsent(generator.getTable(i), this::candidates);
+        }
+        return generator.sampler(candidates);
+    }
+
+    private int[] candidates(PlacementTable table) {
+        int[] candidates = new int[table.count];
+        int count = 0;
+        for (int p = 0; p < table.count; p++) {
+            if (passes(table, table.cells[p])) {
+                candidates[count++] = p;
+            }
+        }
+        if (count == 0) {
+            for (int p = 0; p < table.count; p++) {
+                candidates[p] = p;
+            }
+            count = table.count;
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    private boolean passes(PlacementTable table, int[] cells) {
+        for (int cell : cells) {
+            if (cellTest.test(BitBattlefield.row(cell), BitBattlefield.col(cell), table.size) == anyCell) {
+                return anyCell;
+            }
+        }
+        return !anyCell;
+    }
+}
@@ -0,0 +1,709 @@
+package battleship;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Draws whole fleets that agree with everything seen on the opponent's field so far: no ship on a
+// miss, every hit covered, sunk ships where they sank, no ship inside another ship's zone (the
+// cells that setShipBorders marks), and no afloat ship made only of hits.
+//
+// Each chain is a Gibbs sampler over the fleet: a sweep redraws every afloat ship uniformly among
+// the placements the rest of the fleet allows, so the chains converge to the uniform distribution
+// over consistent fleets. Chains keep their fleets between calls. After a shot they only repair
+// the ships it contradicts; a chain starts over with a randomised search only when repairing fails.
+// Given a deadline, a chain stops between two sweeps or search steps once it passes, and picks up
+// where it stopped on the next call.
+class PosteriorSampler {
+
+    // for the calls that may take as long as they need
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int CELLS = BitBattlefield.CELLS;
+    private static final int BURN_IN = 20;
+    private static final int REPAIR_SWEEPS = 3;
+    private static final int MAX_SEARCH_NODES = 100_000;
+    // search nodes between two looks at the clock
+    private static final int NODES_PER_CHECK = 256;
+
+    private final RuleSet rules;
+    private final ShipClass[] fleet;
+    private final PlacementTable[] tables;
+    private final Chain[] chains;
+    private final ForkJoinPool pool;
+
+    private long hitsLo;
+    private long hitsHi;
+    private long missesLo;
+    private long missesHi;
+    // hits that do not belong to a sunk ship yet
+    private long unresolvedLo;
+    private long unresolvedHi;
+    private final boolean[] sunk;
+    private final int[] sunkPlacement;
+    private int afloat;
+
+    private final long[] counts = new long[CELLS];
+    private long samples;
+
+    PosteriorSampler(RuleSet rules, int chainCount, long seed) {
+        this(rules, chainCount, seed, ForkJoinPool.commonPool());
+    }
+
+    // with a null pool the chains run one after another on the thread that asks for samples
+    PosteriorSampler(RuleSet rules, int chainCount, long seed, ForkJoinPool pool) {
+        if (rules.isTouching()) {
+            // a sunk ship could not be told apart from the hits next to it
+            throw new IllegalArgumentException("The sampler needs ships that do not touch");
+        }
+        this.rules = rules;
+        this.fleet = rules.getFleet();
+        this.pool = pool;
+        tables = new PlacementTable[fleet.length];
+        for (int i = 0; i < fleet.length; i++) {
+            tables[i] = rules.getTable(fleet[i].getLength());
+        }
+        sunk = new boolean[fleet.length];
+        sunkPlacement = new int[fleet.length];
+        chains = new Chain[chainCount];
+        for (int i = 0; i < chainCount; i++) {
+            chains[i] = new Chain();
+        }
+        reset(seed);
+    }
+
+    // forgets everything seen; chain i continues with the random stream Simulation.gameSeed(seed, i)
+    void reset(long seed) {
+        forget();
+        for (int i = 0; i < chains.length; i++) {
+            chains[i].random = new SplittableRandom(Simulation.gameSeed(seed, i));
+        }
+    }
+
+    private void forget() {
+        hitsLo = hitsHi = missesLo = missesHi = unresolvedLo = unresolvedHi = 0;
+        for (int i = 0; i < fleet.length; i++) {
+            sunk[i] = false;
+        }
+        afloat = fleet.length;
+        invalidate();
+        samples = 0;
+    }
+
+    private void invalidate() {
+        for (Chain chain : chains) {
+            chain.valid = false;
+        }
+    }
+
+    RuleSet getRules() {
+        return rules;
+    }
+
+    // the outcome of a shot at the cell, as a Shooter gets it
+    void observe(int cell, Game.Outcome outcome) {
+        if (BitBattlefield.isSet(hitsLo, hitsHi, cell) || BitBattlefield.isSet(missesLo, missesHi, cell)) {
+            return;
+        }
+        invalidate();
+        if (outcome == Game.Outcome.MISS) {
+            missesLo |= BitBattlefield.maskLo(BitBattlefield.row(cell), BitBattlefield.col(cell), 1, false);
+            missesHi |= BitBattlefield.maskHi(BitBattlefield.row(cell), BitBattlefield.col(cell), 1, false);
+        } else {
+            long lo = BitBattlefield.maskLo(BitBattlefield.row(cell), BitBattlefield.col(cell), 1, false);
+            long hi = BitBattlefield.maskHi(BitBattlefield.row(cell), BitBattlefield.col(cell), 1, false);
+            hitsLo |= lo;
+            hitsHi |= hi;
+            unresolvedLo |= lo;
+            unresolvedHi |= hi;
+            if (outcome == Game.Outcome.SHIP_SUNK || outcome == Game.Outcome.ELIMINATED || outcome == Game.Outcome.WIN) {
+                sink(cell);
+            }
+        }
+    }
+
+    // starts over from the hidden view of a field of the rule set's size: its hits, misses and sunk ships
+    void observe(Battlefield battlefield) {
+        if (battlefield.getSize() != rules.getSize()) {
+            throw new IllegalArgumentException("Invalid field size");
+        }
+        forget();
+        for (int cell : rules.getCells()) {
+            char status = battlefield.cellChar(BitBattlefield.row(cell), BitBattlefield.col(cell), true);
+            if (status == 'M') {
+                observe(cell, Game.Outcome.MISS);
+            } else if (status == 'X') {
+                observe(cell, Game.Outcome.HIT);
+            }
+        }
+        for (int cell : rules.getCells()) {
+            if (BitBattlefield.isSet(unresolvedLo, unresolvedHi, cell) && battlefield.isSunk(BitBattlefield.row(cell), BitBattlefield.col(cell))) {
+                sink(cell);
+            }
+        }
+    }
+
+    // Draws at least the given number of fleets, spread over the chains and run on the pool,
+    // and counts how often each cell holds an afloat ship. Returns the number of fleets drawn.
+    long sample(int wanted) {
+        return sample(wanted, NO_DEADLINE);
+    }
+
+    // the same, but no chain goes on past the System.nanoTime() deadline, so fewer fleets may come back
+    long sample(int wanted, long deadline) {
+        for (int cell = 0; cell < CELLS; cell++) {
+            counts[cell] = 0;
+        }
+        samples = 0;
+        if (afloat == 0 || wanted <= 0) {
+            return 0;
+        }
+        run((wanted + chains.length - 1) / chains.length, deadline);
+        for (Chain chain : chains) {
+            for (int cell = 0; cell < CELLS; cell++) {
+                counts[cell] += chain.counts[cell];
+            }
+            samples += chain.samples;
+        }
+        return samples;
+    }
+
+    // gets the chains to a consistent fleet and through their burn-in, as far as the deadline allows,
+    // without drawing any fleets
+    void warmUp(long deadline) {
+        if (afloat > 0) {
+            run(0, deadline);
+        }
+    }
+
+    private void run(int perChain, long deadline) {
+        if (pool == null) {
+            for (Chain chain : chains) {
+                chain.run(perChain, deadline);
+            }
+        } else {
+            pool.invoke(new Sweeps(0, chains.length, perChain, deadline));
+        }
+    }
+
+    private static boolean expired(long deadline) {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+    }
+
+    // how many of the last sample() fleets have an afloat ship on the cell
+    long getCount(int cell) {
+        return counts[cell];
+    }
+
+    long getSamples() {
+        return samples;
+    }
+
+    long getHitsLo() {
+        return hitsLo;
+    }
+
+    long getHitsHi() {
+        return hitsHi;
+    }
+
+    long getMissesLo() {
+        return missesLo;
+    }
+
+    long getMissesHi() {
+        return missesHi;
+    }
+
+    long getUnresolvedLo() {
+        return unresolvedLo;
+    }
+
+    long getUnresolvedHi() {
+        return unresolvedHi;
+    }
+
+    boolean isSunk(int ship) {
+        return sunk[ship];
+    }
+
+    int getSunkPlacement(int ship) {
+        return sunkPlacement[ship];
+    }
+
+    int getAfloat() {
+        return afloat;
+    }
+
+    boolean isResolved(int cell) {
+        return BitBattlefield.isSet(hitsLo, hitsHi, cell) || BitBattlefield.isSet(missesLo, missesHi, cell);
+    }
+
+    // the unresolved hits through this cell form the sunk ship, since ships never touch side by side
+    private void sink(int cell) {
+        long lo = 0;
+        long hi = 0;
+        long frontierLo = BitBattlefield.maskLo(BitBattlefield.row(cell), BitBattlefield.col(cell), 1, false);
+        long frontierHi = BitBattlefield.maskHi(BitBattlefield.row(cell), BitBattlefield.col(cell), 1, false);
+        while ((frontierLo | frontierHi) != 0) {
+            lo |= frontierLo;
+            hi |= frontierHi;
+            long nextLo = BitBattlefield.neighborsLo(frontierLo, frontierHi) & unresolvedLo & ~lo;
+            long nextHi = BitBattlefield.neighborsHi(frontierLo, frontierHi) & unresolvedHi & ~hi;
+            frontierLo = nextLo;
+            frontierHi = nextHi;
+        }
+        unresolvedLo &= ~lo;
+        unresolvedHi &= ~hi;
+
+        int length = Long.bitCount(lo) + Long.bitCount(hi);
+        int ship = -1;
+        for (int i = 0; i < fleet.length; i++) {
+            if (!sunk[i] && fleet[i].getLength() == length) {
+                ship = i;
+                break;
+            }
+        }
+        int head = lo != 0 ? Long.numberOfTrailingZeros(lo) : 64 + Long.numberOfTrailingZeros(hi);
+        int placement = ship < 0 ? -1 : find(tables[ship], head, lo, hi);
+        if (placement < 0) {
+            throw new IllegalArgumentException("No afloat ship fits the sunk cells");
+        }
+        sunk[ship] = true;
+        sunkPlacement[ship] = placement;
+        afloat--;
+
+        for (Chain chain : chains) {
+            // ships of one length are interchangeable: let the one that is already there be the sunk one
+            for (int j = 0; j < fleet.length; j++) {
+                if (j != ship && !sunk[j] && tables[j] == tables[ship] && chain.placement[j] == placement) {
+                    chain.placement[j] = chain.placement[ship];
+                    break;
+                }
+            }
+            chain.placement[ship] = placement;
+        }
+    }
+
+    private int maxPlacements() {
+        int max = 0;
+        for (PlacementTable table : tables) {
+            max = Math.max(max, table.count);
+        }
+        return max;
+    }
+
+    private static int find(PlacementTable table, int head, long lo, long hi) {
+        for (int p : table.byCell[head]) {
+            if (table.lo[p] == lo && table.hi[p] == hi) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    private class Sweeps extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int perChain;
+        private final long deadline;
+
+        Sweeps(int from, int to, int perChain, long deadline) {
+            this.from = from;
+            this.to = to;
+            this.perChain = perChain;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Sweeps(from, middle, perChain, deadline), new Sweeps(middle, to, perChain, deadline));
+                return;
+            }
+            chains[from].run(perChain, deadline);
+        }
+    }
+
+    private class Chain {
+
+        private SplittableRandom random;
+        private final int[] placement = new int[fleet.length];
+        private final int[] candidates = new int[maxPlacements()];
+        private final int[] weights = new int[maxPlacements()];
+        private final long[] counts = new long[CELLS];
+        private long samples;
+        // whether placement agrees with everything observed
+        private boolean valid;
+        // burn-in sweeps still to go before the chain's fleets are counted
+        private int burnIn;
+
+        void run(int wanted, long deadline) {
+            for (int cell = 0; cell < CELLS; cell++) {
+                counts[cell] = 0;
+            }
+            samples = 0;
+            if (!valid && !repair(deadline)) {
+                if (expired(deadline) || !initialize(deadline)) {
+                    return;
+                }
+                burnIn = BURN_IN;
+            }
+            for (; burnIn > 0; burnIn--) {
+                if (expired(deadline)) {
+                    return;
+                }
+                sweep();
+            }
+            for (int i = 0; i < wanted && !expired(deadline); i++) {
+                if (!sweep()) {
+                    valid = false;
+                    return;
+                }
+                record();
+            }
+        }
+
+        private void record() {
+            for (int ship = 0; ship < fleet.length; ship++) {
+                if (!sunk[ship]) {
+                    for (int cell : tables[ship].cells[placement[ship]]) {
+                        counts[cell]++;
+                    }
+                }
+            }
+            samples++;
+        }
+
+        // every afloat ship once, then one random pair of them together
+        private boolean sweep() {
+            for (int ship = 0; ship < fleet.length; ship++) {
+                if (!sunk[ship] && !redraw(ship)) {
+                    return false;
+                }
+            }
+            if (afloat > 1) {
+                int first = random.nextInt(afloat);
+                int second = random.nextInt(afloat - 1);
+                if (second >= first) {
+                    second++;
+                }
+                return redraw(afloatShip(first), afloatShip(second));
+            }
+            return true;
+        }
+
+        // draws a new placement for the ship, uniformly among those the other ships allow
+        private boolean redraw(int ship) {
+            long blockedLo = missesLo;
+            long blockedHi = missesHi;
+            long coverLo = 0;
+            long coverHi = 0;
+            for (int other = 0; other < fleet.length; other++) {
+                if (other != ship) {
+                    PlacementTable table = tables[other];
+                    int p = placement[other];
+                    blockedLo |= table.zoneLo[p];
+                    blockedHi |= table.zoneHi[p];
+                    coverLo |= table.lo[p];
+                    coverHi |= table.hi[p];
+                }
+            }
+            // the hits nobody else covers have to be this ship's
+            int count = collect(tables[ship], blockedLo, blockedHi, unresolvedLo & ~coverLo, unresolvedHi & ~coverHi,
+                    candidates);
+            if (count == 0) {
+                return false;
+            }
+            placement[ship] = candidates[random.nextInt(count)];
+            return true;
+        }
+
+        // Draws both ships at once, uniformly among the pairs of placements the rest of the fleet
+        // allows. Redrawing one ship at a time never hands a hit over from the ship that covers it
+        // to another one, so without this the chain would stay with its first choice. Skipped when
+        // the rest of the fleet covers every hit, since the pair is then free and one-ship moves do.
+        private boolean redraw(int first, int second) {
+            long blockedLo = missesLo;
+            long blockedHi = missesHi;
+            long coverLo = 0;
+            long coverHi = 0;
+            for (int other = 0; other < fleet.length; other++) {
+                if (other != first && other != second) {
+                    PlacementTable table = tables[other];
+                    int p = placement[other];
+                    blockedLo |= table.zoneLo[p];
+                    blockedHi |= table.zoneHi[p];
+                    coverLo |= table.lo[p];
+                    coverHi |= table.hi[p];
+                }
+            }
+            long neededLo = unresolvedLo & ~coverLo;
+            long neededHi = unresolvedHi & ~coverHi;
+            if ((neededLo | neededHi) == 0) {
+                return true;
+            }
+
+            PlacementTable firstTable = tables[first];
+            PlacementTable secondTable = tables[second];
+            int total = 0;
+            for (int p = 0; p < firstTable.count; p++) {
+                int count = 0;
+                if (allowed(firstTable, p, blockedLo, blockedHi, 0, 0)) {
+                    count = collect(secondTable, blockedLo | firstTable.zoneLo[p], blockedHi | firstTable.zoneHi[p],
+                            neededLo & ~firstTable.lo[p], neededHi & ~firstTable.hi[p], null);
+                }
+                weights[p] = count;
+                total += count;
+            }
+            if (total == 0) {
+                return false;
+            }
+            int pick = random.nextInt(total);
+            int p = 0;
+            while (pick >= weights[p]) {
+                pick -= weights[p++];
+            }
+            collect(secondTable, blockedLo | firstTable.zoneLo[p], blockedHi | firstTable.zoneHi[p],
+                    neededLo & ~firstTable.lo[p], neededHi & ~firstTable.hi[p], candidates);
+            placement[first] = p;
+            placement[second] = candidates[pick];
+            return true;
+        }
+
+        // the placements of the table that avoid the blocked cells and cover the needed ones,
+        // written to into unless it is null; returns how many there are
+        private int collect(PlacementTable table, long blockedLo, long blockedHi, long neededLo, long neededHi, int[] into) {
+            int count = 0;
+            if ((neededLo | neededHi) != 0) {
+                int cell = neededLo != 0 ? Long.numberOfTrailingZeros(neededLo) : 64 + Long.numberOfTrailingZeros(neededHi);
+                for (int p : table.byCell[cell]) {
+                    if (allowed(table, p, blockedLo, blockedHi, neededLo, neededHi)) {
+                        if (into != null) {
+                            into[count] = p;
+                        }
+                        count++;
+                    }
+                }
+            } else {
+                for (int p = 0; p < table.count; p++) {
+                    if (allowed(table, p, blockedLo, blockedHi, 0, 0)) {
+                        if (into != null) {
+                            into[count] = p;
+                        }
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        // the index of the n-th afloat ship
+        private int afloatShip(int n) {
+            for (int ship = 0; ship < fleet.length; ship++) {
+                if (!sunk[ship] && n-- == 0) {
+                    return ship;
+                }
+            }
+            return -1;
+        }
+
+        private boolean allowed(PlacementTable table, int p, long blockedLo, long blockedHi, long neededLo, long neededHi) {
+            long lo = table.lo[p];
+            long hi = table.hi[p];
+            return (lo & blockedLo) == 0 && (hi & blockedHi) == 0
+                    && (neededLo & ~lo) == 0 && (neededHi & ~hi) == 0
+                    && ((lo & ~hitsLo) | (hi & ~hitsHi)) != 0;
+        }
+
+        // a few sweeps usually move the ships that the latest shots contradict
+        private boolean repair(long deadline) {
+            if (isConsistent()) {
+                valid = true;
+                return true;
+            }
+            for (int sweep = 0; sweep < REPAIR_SWEEPS && !expired(deadline); sweep++) {
+                sweep();
+                if (isConsistent()) {
+                    valid = true;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isConsistent() {
+            long usedLo = 0;
+            long usedHi = 0;
+            long coverLo = 0;
+            long coverHi = 0;
+            for (int ship = 0; ship < fleet.length; ship++) {
+                PlacementTable table = tables[ship];
+                int p = placement[ship];
+                long lo = table.lo[p];
+                long hi = table.hi[p];
+                if ((lo & usedLo) != 0 || (hi & usedHi) != 0) {
+                    return false;
+                }
+                if (!sunk[ship] && (((lo & missesLo) | (hi & missesHi)) != 0 || ((lo & ~hitsLo) | (hi & ~hitsHi)) == 0)) {
+                    return false;
+                }
+                usedLo |= table.zoneLo[p];
+                usedHi |= table.zoneHi[p];
+                coverLo |= lo;
+                coverHi |= hi;
+            }
+            return (unresolvedLo & ~coverLo) == 0 && (unresolvedHi & ~coverHi) == 0;
+        }
+
+        // a randomised backtracking search for any consistent fleet, covering the hits first
+        private boolean initialize(long deadline) {
+            long blockedLo = missesLo;
+            long blockedHi = missesHi;
+            boolean[] placed = new boolean[fleet.length];
+            for (int ship = 0; ship < fleet.length; ship++) {
+                if (sunk[ship]) {
+                    placement[ship] = sunkPlacement[ship];
+                    blockedLo |= tables[ship].zoneLo[sunkPlacement[ship]];
+                    blockedHi |= tables[ship].zoneHi[sunkPlacement[ship]];
+                    placed[ship] = true;
+                }
+            }
+            int[] nodes = {MAX_SEARCH_NODES};
+            valid = search(placed, blockedLo, blockedHi, unresolvedLo, unresolvedHi, nodes, deadline);
+            return valid;
+        }
+
+        private boolean search(boolean[] placed, long blockedLo, long blockedHi, long neededLo, long neededHi, int[] nodes,
+                               long deadline) {
+            if (--nodes[0] < 0 || nodes[0] % NODES_PER_CHECK == 0 && expired(deadline)) {
+                nodes[0] = 0;
+                return false;
+            }
+            int ship = -1;
+            for (int i = 0; i < fleet.length; i++) {
+                if (!placed[i]) {
+                    ship = i;
+                    break;
+                }
+            }
+            if (ship < 0) {
+                return (neededLo | neededHi) == 0;
+            }
+            if ((neededLo | neededHi) == 0) {
+                return place(ship, placed, blockedLo, blockedHi, 0, 0, nodes, deadline);
+            }
+            // some afloat ship has to cover the first uncovered hit; try each length once
+            for (int i = ship; i < fleet.length; i++) {
+                if (placed[i] || !firstOfLength(placed, i)) {
+                    continue;
+                }
+                if (place(i, placed, blockedLo, blockedHi, neededLo, neededHi, nodes, deadline)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean firstOfLength(boolean[] placed, int ship) {
+            for (int i = 0; i < ship; i++) {
+                if (!placed[i] && tables[i] == tables[ship]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean place(int ship, boolean[] placed, long blockedLo, long blockedHi, long neededLo, long neededHi,
+                              int[] nodes, long deadline) {
+            PlacementTable table = tables[ship];
+            int[] options;
+            int count;
+            if ((neededLo | neededHi) != 0) {
+                int cell = neededLo != 0 ? Long.numberOfTrailingZeros(neededLo) : 64 + Long.numberOfTrailingZeros(neededHi);
+                options = table.byCell[cell];
+                count = options.length;
+            } else {
+                options = null;
+                count = table.count;
+            }
+            if (count == 0) {
+                return false;
+            }
+            int offset = random.nextInt(count);
+            placed[ship] = true;
+            for (int i = 0; i < count; i++) {
+                int p = options == null ? (offset + i) % count : options[(offset + i) % count];
+                if ((table.lo[p] & blockedLo) == 0 && (table.hi[p] & blockedHi) == 0
+                        && ((table.lo[p] & ~hitsLo) | (table.hi[p] & ~hitsHi)) != 0) {
+                    placement[ship] = p;
+                    if (search(placed, blockedLo | table.zoneLo[p], blockedHi | table.zoneHi[p],
+                            neededLo & ~table.lo[p], neededHi & ~table.hi[p], nodes, deadline)) {
+                        return true;
+                    }
+                }
+            }
+            placed[ship] = false;
+            return false;
+        }
+    }
+}
+
+// Shoots at the unresolved cell that holds a ship in the most fleets the PosteriorSampler draws.
+class SamplingShooter implements Shooter {
+
+    private final int samplesPerShot;
+    private final int chainCount;
+    private PosteriorSampler sampler;
+    private SplittableRandom random;
+
+    SamplingShooter(int samplesPerShot, int chainCount) {
+        this.samplesPerShot = samplesPerShot;
+        this.chainCount = chainCount;
+    }
+
+    @Override
+    public void newGame(RuleSet rules, SplittableRandom random) {
+        this.random = random;
+        if (sampler == null || sampler.getRules() != rules) {
+            sampler = new PosteriorSampler(rules, chainCount, random.nextLong());
+        } else {
+            sampler.reset(random.nextLong());
+        }
+    }
+
+    @Override
+    public int nextShot() {
+        sampler.sample(samplesPerShot);
+        int best = -1;
+        long bestCount = -1;
+        int ties = 0;
+        for (int cell : sampler.getRules().getCells()) {
+            if (sampler.isResolved(cell)) {
+                continue;
+            }
+            long count = sampler.getCount(cell);
+            if (count > bestCount) {
+                best = cell;
+                bestCount = count;
+                ties = 1;
+            } else if (count == bestCount && random.nextInt(++ties) == 0) {
+                best = cell;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void onShot(int cell, Game.Outcome outcome) {
+        sampler.observe(cell, outcome);
+    }
+
+    PosteriorSampler getSampler() {
+        return sampler;
+    }
+}
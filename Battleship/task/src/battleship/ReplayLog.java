@@ -0,0 +1,254 @@
+package battleship;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Append-only binary log of games: one 16-byte record per game start, accepted placement and shot.
+//
+//   byte type | byte board | byte length | byte vertical | int game | int row | int col
+//
+// A game record keeps the field size in row, the number of players in col and whether ships may
+// touch in vertical. Its game is its own record number, so games are numbered uniquely across every
+// run that appended to the file. Board and length are unsigned bytes; a record that does not fit is
+// refused rather than cut short.
+//
+// The file is written through memory-mapped chunks. The threads that append never wait for the
+// disk: a daemon thread forces the chunks written to every FLUSH_MILLIS, and close forces the rest.
+// Unused space is zero, and no record has type 0, so readers stop at the first zero.
+class ReplayLog implements Closeable {
+
+    static final int RECORD_SIZE = 16;
+    static final byte GAME = 1;
+    static final byte PLACEMENT = 2;
+    static final byte SHOT = 3;
+    // the largest board and ship length a record holds
+    static final int MAX_BYTE = 255;
+
+    private static final long CHUNK = 64L << 20;
+    private static final long FLUSH_MILLIS = 1000;
+
+    interface Handler {
+
+        void game(int game, int size, int players, boolean touching);
+
+        void placement(int game, int board, int row, int col, int length, boolean vertical);
+
+        void shot(int game, int board, int row, int col);
+    }
+
+    private final FileChannel channel;
+    private MappedByteBuffer chunk;
+    private long chunkStart;
+    private long records;
+    // the chunks written to since the last flush; the current one is always among them
+    private final List<MappedByteBuffer> dirty = new ArrayList<>();
+    private final ScheduledExecutorService flusher;
+
+    ReplayLog(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end = findEnd();
+        records = end / RECORD_SIZE;
+        map(end - end % CHUNK);
+        chunk.position((int) (end - chunkStart));
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "battleship-replay-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // starts a game and returns its number, for the placements and shots that follow
+    synchronized int game(int size, int players, boolean touching) {
+        if (records > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The replay log has no game numbers left");
+        }
+        int game = (int) records;
+        append(GAME, 0, 0, touching, game, size, players);
+        return game;
+    }
+
+    synchronized void placement(int game, int board, int row, int col, int length, boolean vertical) {
+        append(PLACEMENT, checkByte("board", board), checkByte("ship length", length), vertical, game, row, col);
+    }
+
+    synchronized void shot(int game, int board, int row, int col) {
+        append(SHOT, checkByte("board", board), 0, false, game, row, col);
+    }
+
+    synchronized long getRecords() {
+        return records;
+    }
+
+    // forces what was written so far to disk; the appending threads carry on meanwhile
+    void flush() {
+        List<MappedByteBuffer> chunks;
+        synchronized (this) {
+            chunks = new ArrayList<>(dirty);
+            dirty.clear();
+            dirty.add(chunk);
+        }
+        for (MappedByteBuffer written : chunks) {
+            written.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        channel.close();
+    }
+
+    private static int checkByte(String name, int value) {
+        if (value < 0 || value > MAX_BYTE) {
+            throw new IllegalArgumentException("The replay log holds a " + name + " up to " + MAX_BYTE + ", got " + value);
+        }
+        return value;
+    }
+
+    private void append(byte type, int board, int length, boolean vertical, int game, int row, int col) {
+        if (chunk.remaining() < RECORD_SIZE) {
+            try {
+                map(chunkStart + CHUNK);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot grow the replay log", e);
+            }
+        }
+        chunk.put(type).put((byte) board).put((byte) length).put((byte) (vertical ? 1 : 0))
+                .putInt(game).putInt(row).putInt(col);
+        records++;
+    }
+
+    // the chunk that was written to stays dirty until the flusher gets to it
+    private void map(long start) throws IOException {
+        chunkStart = start;
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, CHUNK);
+        chunk.order(ByteOrder.LITTLE_ENDIAN);
+        dirty.add(chunk);
+    }
+
+    // the first record slot whose type is 0, found by binary search over the record slots
+    private long findEnd() throws IOException {
+        ByteBuffer type = ByteBuffer.allocate(1);
+        long low = 0;
+        long high = channel.size() / RECORD_SIZE;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            type.clear();
+            channel.read(type, middle * RECORD_SIZE);
+            if (type.get(0) == 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low * RECORD_SIZE;
+    }
+
+    // reads the log front to back and hands every record to the handler
+    static long replay(Path path, Handler handler) throws IOException {
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size() - channel.size() % RECORD_SIZE;
+            for (long start = 0; start < size; start += CHUNK) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK, size - start));
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    byte type = buffer.get();
+                    if (type == 0) {
+                        return count;
+                    }
+                    int board = buffer.get() & 0xFF;
+                    int length = buffer.get() & 0xFF;
+                    boolean vertical = buffer.get() != 0;
+                    int game = buffer.getInt();
+                    int row = buffer.getInt();
+                    int col = buffer.getInt();
+                    switch (type) {
+                        case GAME:
+                            handler.game(game, row, col, vertical);
+                            break;
+                        case PLACEMENT:
+                            handler.placement(game, board, row, col, length, vertical);
+                            break;
+                        case SHOT:
+                            handler.shot(game, board, row, col);
+                            break;
+                        default:
+                            throw new IOException("Corrupt replay log record at " + (start + buffer.position() - RECORD_SIZE));
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Rebuilds the battlefields of every game in the log, one per player. A game that starts twice,
+    // or a record of a game or board that never started, makes the log corrupt.
+    static Map<Integer, Battlefield[]> rebuild(Path path) throws IOException {
+        Map<Integer, Battlefield[]> games = new HashMap<>();
+        try {
+            replay(path, new Handler() {
+                @Override
+                public void game(int game, int size, int players, boolean touching) {
+                    if (games.containsKey(game)) {
+                        throw corrupt("Game " + game + " starts twice in the replay log");
+                    }
+                    Battlefield[] battlefields = new Battlefield[players];
+                    for (int i = 0; i < players; i++) {
+                        battlefields[i] = new Battlefield(size, touching);
+                    }
+                    games.put(game, battlefields);
+                }
+
+                @Override
+                public void placement(int game, int board, int row, int col, int length, boolean vertical) {
+                    Battlefield battlefield = battlefield(game, board);
+                    Ship.Orientation orientation = vertical ? Ship.Orientation.VERTICAL : Ship.Orientation.HORIZONTAL;
+                    battlefield.addShip(new Ship(battlefield, Coordinate.of(row, col), orientation, length));
+                }
+
+                @Override
+                public void shot(int game, int board, int row, int col) {
+                    battlefield(game, board).shoot(Coordinate.of(row, col));
+                }
+
+                private Battlefield battlefield(int game, int board) {
+                    Battlefield[] battlefields = games.get(game);
+                    if (battlefields == null || board >= battlefields.length) {
+                        throw corrupt("Game " + game + " has no board " + board + " in the replay log");
+                    }
+                    return battlefields[board];
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return games;
+    }
+
+    private static UncheckedIOException corrupt(String message) {
+        return new UncheckedIOException(new IOException(message));
+    }
+}
@@ -0,0 +1,205 @@
+package battleship;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+// What a game is played by: the field size, the fleet, whether ships may touch and how many shots
+// a turn has. A rule set file is a properties file, every key optional:
+//
+//   name = small
+//   size = 8
+//   touching = true
+//   fleet = Battleship:4, Cruiser:3, Destroyer:2, Destroyer:2
+//   salvo = 3
+//
+// salvo = ships gives a player one shot for each of their ships still afloat; a number of shots
+// has to be at least 1.
+// A rule set is compiled when it is created: the placement tables of every ship length are built
+// (or taken from an earlier rule set with the same field) and then shared read-only by all the
+// games, generators and shooters that use it. Bit boards only go up to 10x10, so larger fields
+// get no tables and can only be played with Game.
+class RuleSet {
+
+    static final RuleSet STANDARD = new RuleSet("standard", Coordinate.STANDARD_SIZE, false, ShipClass.standardFleet());
+    // the salvo of a player with one shot per ship afloat; no number of shots is negative
+    static final int SALVO_SHIPS = -1;
+
+    private final String name;
+    private final int size;
+    private final boolean touching;
+    private final ShipClass[] fleet;
+    // shots a turn, or SALVO_SHIPS
+    private final int salvo;
+    private final PlacementTable[] tables;
+    // the bit board cells that are on the field
+    private final int[] cells;
+    // draws the whole fleet for every FleetGenerator of these rules; made by the first of them
+    private volatile FleetGenerator.Sampler sampler;
+
+    RuleSet(String name, int size, boolean touching, ShipClass[] fleet) {
+        this(name, size, touching, fleet, 1);
+    }
+
+    RuleSet(String name, int size, boolean touching, ShipClass[] fleet, int salvo) {
+        if (size < 1 || size > Coordinate.MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid field size");
+        }
+        if (fleet.length == 0) {
+            throw new IllegalArgumentException("The fleet is empty");
+        }
+        for (ShipClass shipClass : fleet) {
+            if (shipClass.getLength() < 1 || shipClass.getLength() > size) {
+                throw new IllegalArgumentException("Invalid length of the " + shipClass.getType());
+            }
+        }
+        if (salvo < 1 && salvo != SALVO_SHIPS) {
+            throw new IllegalArgumentException("Invalid salvo");
+        }
+        this.name = name;
+        this.size = size;
+        this.touching = touching;
+        this.fleet = fleet.clone();
+        this.salvo = salvo;
+        if (size <= BitBattlefield.SIZE) {
+            tables = PlacementTable.compile(size, touching);
+            cells = new int[size * size];
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    cells[row * size + col] = BitBattlefield.cell(row, col);
+                }
+            }
+        } else {
+            tables = null;
+            cells = null;
+        }
+    }
+
+    static RuleSet load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return parse(properties, dot > 0 ? fileName.substring(0, dot) : fileName);
+    }
+
+    static RuleSet parse(Properties properties, String defaultName) {
+        String name = properties.getProperty("name", defaultName).trim();
+        int size = Integer.parseInt(properties.getProperty("size", String.valueOf(Coordinate.STANDARD_SIZE)).trim());
+        boolean touching = Boolean.parseBoolean(properties.getProperty("touching", "false").trim());
+        String fleet = properties.getProperty("fleet");
+        String salvo = properties.getProperty("salvo", "1").trim();
+        return new RuleSet(name, size, touching, fleet == null ? ShipClass.standardFleet() : parseFleet(fleet),
+                salvo.equals("ships") ? SALVO_SHIPS : parseSalvo(salvo));
+    }
+
+    private static int parseSalvo(String salvo) {
+        int shots = Integer.parseInt(salvo);
+        if (shots < 1) {
+            throw new IllegalArgumentException("Invalid salvo: " + salvo);
+        }
+        return shots;
+    }
+
+    // "Type:length, Type:length, ..."
+    static ShipClass[] parseFleet(String fleet) {
+        List<ShipClass> shipClasses = new ArrayList<>();
+        for (String entry : fleet.split(",")) {
+            int colon = entry.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Expected type:length, got " + entry.trim());
+            }
+            shipClasses.add(new ShipClass(entry.substring(0, colon).trim(),
+                    Integer.parseInt(entry.substring(colon + 1).trim())));
+        }
+        return shipClasses.toArray(new ShipClass[0]);
+    }
+
+    // the keys parse() reads, so the rules can be written out and loaded again
+    void store(Properties properties) {
+        StringBuilder fleetList = new StringBuilder();
+        for (ShipClass shipClass : fleet) {
+            if (fleetList.length() > 0) {
+                fleetList.append(", ");
+            }
+            fleetList.append(shipClass.getType()).append(':').append(shipClass.getLength());
+        }
+        properties.setProperty("name", name);
+        properties.setProperty("size", String.valueOf(size));
+        properties.setProperty("touching", String.valueOf(touching));
+        properties.setProperty("fleet", fleetList.toString());
+        properties.setProperty("salvo", salvo == SALVO_SHIPS ? "ships" : String.valueOf(salvo));
+    }
+
+    // the same rules on another field size
+    RuleSet withSize(int size) {
+        return size == this.size ? this : new RuleSet(name, size, touching, fleet, salvo);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    boolean isTouching() {
+        return touching;
+    }
+
+    // shared, do not modify
+    ShipClass[] getFleet() {
+        return fleet;
+    }
+
+    // shots a turn, or SALVO_SHIPS
+    int getSalvo() {
+        return salvo;
+    }
+
+    // the most shots a turn can have; never more than the field has cells
+    int getMaxSalvo() {
+        return Math.min(salvo == SALVO_SHIPS ? fleet.length : salvo, size * size);
+    }
+
+    boolean hasTables() {
+        return tables != null;
+    }
+
+    PlacementTable getTable(int length) {
+        if (tables == null) {
+            throw new IllegalStateException("Bit boards only go up to " + BitBattlefield.SIZE + "x" + BitBattlefield.SIZE);
+        }
+        return tables[length];
+    }
+
+    FleetGenerator.Sampler getSampler() {
+        FleetGenerator.Sampler sampler = this.sampler;
+        if (sampler == null) {
+            // two threads may both make one; they come out the same
+            sampler = new FleetGenerator.Sampler(FleetGenerator.tables(this), null);
+            this.sampler = sampler;
+        }
+        return sampler;
+    }
+
+    // the bit board numbers of the cells on the field, row by row; shared, do not modify
+    int[] getCells() {
+        if (cells == null) {
+            throw new IllegalStateException("Bit boards only go up to " + BitBattlefield.SIZE + "x" + BitBattlefield.SIZE);
+        }
+        return cells;
+    }
+
+    boolean isOnField(int cell) {
+        return BitBattlefield.row(cell) < size && BitBattlefield.col(cell) < size;
+    }
+}
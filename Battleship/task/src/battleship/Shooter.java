@@ -0,0 +1,43 @@
+package battleship;
+
+import java.util.SplittableRandom;
+
+// A firing strategy for headless games. Cells are numbered row * 10 + col, as in BitBattlefield,
+// and only the cells of the rule set's field may be shot.
+interface Shooter {
+
+    void newGame(RuleSet rules, SplittableRandom random);
+
+    int nextShot();
+
+    void onShot(int cell, Game.Outcome outcome);
+}
+
+class RandomShooter implements Shooter {
+
+    private int[] order = new int[BitBattlefield.CELLS];
+    private int next;
+
+    @Override
+    public void newGame(RuleSet rules, SplittableRandom random) {
+        int[] cells = rules.getCells();
+        if (order.length != cells.length) {
+            order = new int[cells.length];
+        }
+        for (int i = 0; i < order.length; i++) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = cells[i];
+        }
+        next = 0;
+    }
+
+    @Override
+    public int nextShot() {
+        return order[next++];
+    }
+
+    @Override
+    public void onShot(int cell, Game.Outcome outcome) {
+    }
+}
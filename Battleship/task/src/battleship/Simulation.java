@@ -0,0 +1,236 @@
+package battleship;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+// Runs seeded headless games in parallel on a work-stealing pool. Game i always gets the same
+// random stream for a given seed, so results do not depend on how the range is split.
+class Simulation {
+
+    private static final int LEAF_GAMES = 512;
+    // positions the endgame solver searches a shot: about what 20 ms buys, but the same on any machine
+    private static final long ENDGAME_NODES = 50_000;
+
+    private final RuleSet rules;
+    private final Supplier<Shooter> first;
+    private final Supplier<Shooter> second;
+    private final ForkJoinPool pool;
+    private GameStore store;
+    private int firstStrategy;
+    private int secondStrategy;
+
+    Simulation(RuleSet rules, Supplier<Shooter> first, Supplier<Shooter> second) {
+        this(rules, first, second, ForkJoinPool.commonPool());
+    }
+
+    Simulation(RuleSet rules, Supplier<Shooter> first, Supplier<Shooter> second, ForkJoinPool pool) {
+        this.rules = rules;
+        this.first = first;
+        this.second = second;
+        this.pool = pool;
+    }
+
+    // keeps every game played from now on in store, under the given strategy names
+    void record(GameStore store, String firstName, String secondName) {
+        this.store = store;
+        this.firstStrategy = store.strategy(firstName);
+        this.secondStrategy = store.strategy(secondName);
+    }
+
+    SimulationReport run(long games, long seed) {
+        long start = System.nanoTime();
+        SimulationReport report = pool.invoke(new Batch(seed, 0, games));
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    static long gameSeed(long seed, long game) {
+        long z = seed + (game + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private class Batch extends RecursiveTask<SimulationReport> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long seed;
+        private final long from;
+        private final long to;
+
+        Batch(long seed, long from, long to) {
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SimulationReport compute() {
+            if (to - from > LEAF_GAMES) {
+                long middle = (from + to) >>> 1;
+                Batch left = new Batch(seed, from, middle);
+                left.fork();
+                SimulationReport report = new Batch(seed, middle, to).compute();
+                report.merge(left.join());
+                return report;
+            }
+
+            SimulationReport report = new SimulationReport();
+            HeadlessGame game = new HeadlessGame(rules);
+            Shooter firstShooter = first.get();
+            Shooter secondShooter = second.get();
+            GameStore.Batch batch = store == null ? null : store.newBatch();
+            game.setRecorder(batch);
+            for (long i = from; i < to; i++) {
+                int winner = game.play(firstShooter, secondShooter, new SplittableRandom(gameSeed(seed, i)));
+                report.record(winner, winner < 0 ? game.getMoves() : game.getShots(winner));
+                if (batch != null) {
+                    batch.endGame(winner, firstStrategy, secondStrategy);
+                }
+            }
+            if (batch != null) {
+                store.append(batch);
+            }
+            return report;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        String firstName = args.length > 2 ? args[2] : "random";
+        String secondName = args.length > 3 ? args[3] : "random";
+        RuleSet rules = args.length > 4 && !args[4].equals("-") ? RuleSet.load(Paths.get(args[4])) : RuleSet.STANDARD;
+        Simulation simulation = new Simulation(rules, shooter(firstName), shooter(secondName));
+        if (args.length > 5) {
+            // the games themselves go to a GameStore for GameStore.main to analyse
+            try (GameStore store = GameStore.create(Paths.get(args[5]), rules)) {
+                simulation.record(store, firstName, secondName);
+                System.out.println(simulation.run(games, seed));
+            }
+        } else {
+            System.out.println(simulation.run(games, seed));
+        }
+    }
+
+    static Supplier<Shooter> shooter(String name) {
+        switch (name) {
+            case "random":
+                return RandomShooter::new;
+            case "density":
+                return DensityShooter::new;
+            case "sampler":
+                return () -> new SamplingShooter(1000, 4);
+            case "endgame":
+                return () -> new EndgameShooter(new SamplingShooter(1000, 4), Long.MAX_VALUE, ENDGAME_NODES);
+            default:
+                throw new IllegalArgumentException("Unknown shooter: " + name);
+        }
+    }
+
+    static Placer placer(String name) {
+        switch (name) {
+            case "uniform":
+                return new UniformPlacer();
+            case "edge":
+                return RestrictedPlacer.edge();
+            case "center":
+                return RestrictedPlacer.center();
+            default:
+                throw new IllegalArgumentException("Unknown placer: " + name);
+        }
+    }
+}
+
+class SimulationReport {
+
+    private static final int MAX_TURNS = BitBattlefield.CELLS;
+
+    private long games;
+    private long draws;
+    private final long[] wins = new long[2];
+    // turnHistogram[player][n] counts wins of that player that took n of its own shots
+    private final long[][] turnHistogram = new long[2][MAX_TURNS + 1];
+    private long elapsedNanos;
+
+    void record(int winner, int turns) {
+        games++;
+        if (winner < 0) {
+            draws++;
+            return;
+        }
+        wins[winner]++;
+        turnHistogram[winner][Math.min(turns, MAX_TURNS)]++;
+    }
+
+    void merge(SimulationReport other) {
+        games += other.games;
+        draws += other.draws;
+        for (int player = 0; player < 2; player++) {
+            wins[player] += other.wins[player];
+            for (int turns = 0; turns <= MAX_TURNS; turns++) {
+                turnHistogram[player][turns] += other.turnHistogram[player][turns];
+            }
+        }
+    }
+
+    long getGames() {
+        return games;
+    }
+
+    long getDraws() {
+        return draws;
+    }
+
+    long getWins(int player) {
+        return wins[player];
+    }
+
+    long[] getTurnHistogram(int player) {
+        return turnHistogram[player].clone();
+    }
+
+    double gamesPerSecond() {
+        return elapsedNanos == 0 ? 0 : games * 1e9 / elapsedNanos;
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    double meanTurns(int player) {
+        long sum = 0;
+        for (int turns = 0; turns <= MAX_TURNS; turns++) {
+            sum += turns * turnHistogram[player][turns];
+        }
+        return wins[player] == 0 ? 0 : (double) sum / wins[player];
+    }
+
+    int turnsPercentile(int player, double percentile) {
+        long target = (long) Math.ceil(wins[player] * percentile);
+        long seen = 0;
+        for (int turns = 0; turns <= MAX_TURNS; turns++) {
+            seen += turnHistogram[player][turns];
+            if (seen >= target && seen > 0) {
+                return turns;
+            }
+        }
+        return 0;
+    }
+
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(String.format("games: %d, draws: %d, %.0f games/s\n", games, draws, gamesPerSecond()));
+        for (int player = 0; player < 2; player++) {
+            stringBuilder.append(String.format("player %d: %d wins (%.2f%%), turns mean %.2f, p50 %d, p90 %d, p99 %d\n",
+                    player + 1, wins[player], games == 0 ? 0 : 100.0 * wins[player] / games, meanTurns(player),
+                    turnsPercentile(player, 0.5), turnsPercentile(player, 0.9), turnsPercentile(player, 0.99)));
+        }
+        return stringBuilder.toString();
+    }
+}
@@ -0,0 +1,158 @@
+package battleship;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// The deadlines of many sessions on the one thread that owns them, so no session needs a timer
+// thread of its own. Time is cut into ticks, and a timeout due at tick t waits in slot t modulo
+// the ring size, in a doubly-linked list: scheduling and cancelling are O(1) whatever the number
+// of timeouts. advance() walks the slots of the ticks that have passed and fires what is due;
+// a timeout more than one ring away is passed over until its own round comes.
+//
+// Not thread-safe: schedule, cancel and advance on the owning thread only.
+class TimerWheel {
+
+    private static final int SCHEDULED = 0;
+    private static final int FIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private final long tickNanos;
+    private final LongSupplier clock;
+    private final long origin;
+    private final Timeout[] slots;
+    private final int mask;
+    // the last tick whose slot has been walked
+    private long tick = 0;
+    private int size = 0;
+    private final List<Timeout> due = new ArrayList<>();
+
+    // slots is rounded up to a power of two
+    TimerWheel(long tickNanos, int slots) {
+        this(tickNanos, slots, System::nanoTime);
+    }
+
+    // clock tells schedule the time, in the same nanoseconds as the now given to advance
+    TimerWheel(long tickNanos, int slots, LongSupplier clock) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Invalid tick");
+        }
+        this.tickNanos = tickNanos;
+        this.clock = clock;
+        this.origin = clock.getAsLong();
+        this.slots = new Timeout[Integer.highestOneBit(Math.max(2, slots) * 2 - 1)];
+        this.mask = this.slots.length - 1;
+    }
+
+    // runs task on the owning thread once delayNanos have passed, give or take a tick
+    Timeout schedule(long delayNanos, Runnable task) {
+        long deadline = clock.getAsLong() - origin + Math.max(0, delayNanos);
+        // never in a tick already walked, nor in the one under way
+        Timeout timeout = new Timeout(task, Math.max(tick + 1, (deadline + tickNanos - 1) / tickNanos));
+        timeout.link();
+        size++;
+        return timeout;
+    }
+
+    // fires every timeout due by now; returns how many
+    int advance(long now) {
+        long target = (now - origin) / tickNanos;
+        if (target <= tick) {
+            return 0;
+        }
+        // after a long pause every slot is walked once, all against the latest tick
+        long steps = Math.min(target - tick, slots.length);
+        for (long step = 1; step <= steps; step++) {
+            for (Timeout timeout = slots[(int) ((tick + step) & mask)]; timeout != null; ) {
+                Timeout next = timeout.next;
+                if (timeout.deadline <= target) {
+                    timeout.unlink();
+                    due.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+        tick = target;
+        // the tasks run only after the walk, so they may schedule and cancel freely
+        int fired = 0;
+        for (Timeout timeout : due) {
+            if (timeout.state == SCHEDULED) {
+                timeout.state = FIRED;
+                size--;
+                fired++;
+                timeout.task.run();
+            }
+        }
+        due.clear();
+        return fired;
+    }
+
+    // the timeouts neither fired nor cancelled
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long getTickNanos() {
+        return tickNanos;
+    }
+
+    class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private int state = SCHEDULED;
+        private Timeout previous;
+        private Timeout next;
+        private boolean linked;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // returns false when the timeout has fired or was cancelled already
+        boolean cancel() {
+            if (state != SCHEDULED) {
+                return false;
+            }
+            state = CANCELLED;
+            size--;
+            if (linked) {
+                unlink();
+            }
+            return true;
+        }
+
+        boolean isPending() {
+            return state == SCHEDULED;
+        }
+
+        private void link() {
+            int slot = (int) (deadline & mask);
+            next = slots[slot];
+            if (next != null) {
+                next.previous = this;
+            }
+            slots[slot] = this;
+            linked = true;
+        }
+
+        private void unlink() {
+            if (previous != null) {
+                previous.next = next;
+            } else {
+                slots[(int) (deadline & mask)] = next;
+            }
+            if (next != null) {
+                next.previous = previous;
+            }
+            previous = null;
+            next = null;
+            linked = false;
+        }
+    }
+}
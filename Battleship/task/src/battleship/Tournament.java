@@ -0,0 +1,419 @@
+package battleship;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+// Round-robin and Swiss tournaments between entrants, each a shooter plus a placer and named
+// "<shooter>/<placer>". Every pairing plays the same number of games, taking turns to move first.
+// Game g of the tournament always uses Simulation.gameSeed(seed, g), so the results do not depend
+// on how the games are spread over the pool.
+class Tournament {
+
+    private static final int LEAF_GAMES = 256;
+
+    static class Entrant {
+
+        final String name;
+        final Supplier<Shooter> shooter;
+        final Placer placer;
+
+        Entrant(String name, Supplier<Shooter> shooter, Placer placer) {
+            this.name = name;
+            this.shooter = shooter;
+            this.placer = placer;
+        }
+
+        // "density/edge", or just "density" for the uniform placer
+        static Entrant parse(String name) {
+            int slash = name.indexOf('/');
+            String shooter = slash < 0 ? name : name.substring(0, slash);
+            String placer = slash < 0 ? "uniform" : name.substring(slash + 1);
+            return new Entrant(shooter + "/" + placer, Simulation.shooter(shooter), Simulation.placer(placer));
+        }
+    }
+
+    private final RuleSet rules;
+    private final List<Entrant> entrants;
+    private final int gamesPerPairing;
+    private final long seed;
+    private final ForkJoinPool pool;
+    // the index of the next game in the seed sequence
+    private long nextGame;
+
+    Tournament(RuleSet rules, List<Entrant> entrants, int gamesPerPairing, long seed) {
+        this(rules, entrants, gamesPerPairing, seed, ForkJoinPool.commonPool());
+    }
+
+    Tournament(RuleSet rules, List<Entrant> entrants, int gamesPerPairing, long seed, ForkJoinPool pool) {
+        if (entrants.size() < 2) {
+            throw new IllegalArgumentException("A tournament needs at least two entrants");
+        }
+        this.rules = rules;
+        this.entrants = entrants;
+        this.gamesPerPairing = gamesPerPairing;
+        this.seed = seed;
+        this.pool = pool;
+    }
+
+    TournamentResult roundRobin() {
+        TournamentResult result = new TournamentResult(entrants);
+        List<int[]> pairings = new ArrayList<>();
+        for (int a = 0; a < entrants.size(); a++) {
+            for (int b = a + 1; b < entrants.size(); b++) {
+                pairings.add(new int[]{a, b});
+            }
+        }
+        play(pairings, result);
+        return result;
+    }
+
+    // each round pairs entrants with equal or close match points that have not met yet
+    TournamentResult swiss(int rounds) {
+        int n = entrants.size();
+        TournamentResult result = new TournamentResult(entrants);
+        double[] points = new double[n];
+        boolean[][] met = new boolean[n][n];
+        boolean[] hadBye = new boolean[n];
+        for (int round = 0; round < rounds; round++) {
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingDouble((Integer i) -> -points[i]).thenComparingInt(i -> i));
+
+            boolean[] paired = new boolean[n];
+            if (n % 2 == 1) {
+                int bye = bye(order, hadBye);
+                paired[bye] = true;
+                hadBye[bye] = true;
+                points[bye] += 1;
+            }
+            List<int[]> pairings = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int a = order[i];
+                if (paired[a]) {
+                    continue;
+                }
+                int b = -1;
+                for (int j = i + 1; j < n; j++) {
+                    int candidate = order[j];
+                    if (!paired[candidate] && (b < 0 || !met[a][candidate])) {
+                        b = candidate;
+                        if (!met[a][candidate]) {
+                            break;
+                        }
+                    }
+                }
+                paired[a] = true;
+                paired[b] = true;
+                met[a][b] = true;
+                met[b][a] = true;
+                pairings.add(new int[]{a, b});
+            }
+
+            TournamentResult roundResult = new TournamentResult(entrants);
+            play(pairings, roundResult);
+            for (int[] pairing : pairings) {
+                long aWins = roundResult.getWins(pairing[0], pairing[1]);
+                long bWins = roundResult.getWins(pairing[1], pairing[0]);
+                points[pairing[0]] += aWins > bWins ? 1 : aWins == bWins ? 0.5 : 0;
+                points[pairing[1]] += bWins > aWins ? 1 : aWins == bWins ? 0.5 : 0;
+            }
+            result.merge(roundResult);
+        }
+        result.setMatchPoints(points);
+        return result;
+    }
+
+    // The entrant that sits the round out, worth a match point: the lowest ranked one without a bye
+    // yet, or the lowest ranked of all once everyone has had one, never the leader.
+    static int bye(Integer[] order, boolean[] hadBye) {
+        for (int i = order.length - 1; i >= 0; i--) {
+            if (!hadBye[order[i]]) {
+                return order[i];
+            }
+        }
+        return order[order.length - 1];
+    }
+
+    private void play(List<int[]> pairings, TournamentResult result) {
+        long games = (long) pairings.size() * gamesPerPairing;
+        long start = System.nanoTime();
+        result.merge(pool.invoke(new Batch(pairings, nextGame, 0, games)));
+        result.addElapsedNanos(System.nanoTime() - start);
+        nextGame += games;
+    }
+
+    private class Batch extends RecursiveTask<TournamentResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<int[]> pairings;
+        private final long firstGame;
+        private final long from;
+        private final long to;
+
+        Batch(List<int[]> pairings, long firstGame, long from, long to) {
+            this.pairings = pairings;
+            this.firstGame = firstGame;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TournamentResult compute() {
+            if (to - from > LEAF_GAMES) {
+                long middle = (from + to) >>> 1;
+                Batch left = new Batch(pairings, firstGame, from, middle);
+                left.fork();
+                TournamentResult result = new Batch(pairings, firstGame, middle, to).compute();
+                result.merge(left.join());
+                return result;
+            }
+
+            TournamentResult result = new TournamentResult(entrants);
+            HeadlessGame game = new HeadlessGame(rules);
+            Shooter[] shooters = new Shooter[entrants.size()];
+            for (long i = from; i < to; i++) {
+                int[] pairing = pairings.get((int) (i / gamesPerPairing));
+                // odd games of a pairing are started by its second entrant
+                boolean swap = (i % gamesPerPairing) % 2 == 1;
+                int first = swap ? pairing[1] : pairing[0];
+                int second = swap ? pairing[0] : pairing[1];
+                for (int entrant : pairing) {
+                    if (shooters[entrant] == null) {
+                        shooters[entrant] = entrants.get(entrant).shooter.get();
+                    }
+                }
+                int winner = game.play(shooters[first], entrants.get(first).placer,
+                        shooters[second], entrants.get(second).placer,
+                        new SplittableRandom(Simulation.gameSeed(seed, firstGame + i)));
+                if (winner < 0) {
+                    result.recordDraw(first, second);
+                } else {
+                    result.recordWin(winner == 0 ? first : second, winner == 0 ? second : first, game.getShots(winner));
+                }
+            }
+            return result;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        RuleSet rules = RuleSet.STANDARD;
+        int games = 1000;
+        long seed = 42;
+        int swissRounds = 0;
+        List<Entrant> entrants = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--games".equals(args[i])) {
+                games = Integer.parseInt(args[++i]);
+            } else if ("--seed".equals(args[i])) {
+                seed = Long.parseLong(args[++i]);
+            } else if ("--rules".equals(args[i])) {
+                rules = RuleSet.load(Paths.get(args[++i]));
+            } else if ("--swiss".equals(args[i])) {
+                swissRounds = Integer.parseInt(args[++i]);
+            } else {
+                entrants.add(Entrant.parse(args[i]));
+            }
+        }
+        if (entrants.isEmpty()) {
+            for (String name : new String[]{"random/uniform", "density/uniform", "density/edge", "density/center"}) {
+                entrants.add(Entrant.parse(name));
+            }
+        }
+        Tournament tournament = new Tournament(rules, entrants, games, seed);
+        System.out.print(swissRounds > 0 ? tournament.swiss(swissRounds) : tournament.roundRobin());
+    }
+}
+
+class TournamentResult {
+
+    private static final double ELO_SCALE = 400 / Math.log(10);
+
+    private final List<Tournament.Entrant> entrants;
+    // wins[a][b] counts the games a won against b, draws is symmetric
+    private final long[][] wins;
+    private final long[][] draws;
+    private final long[] shotsToWin;
+    private double[] matchPoints;
+    private long elapsedNanos;
+
+    TournamentResult(List<Tournament.Entrant> entrants) {
+        int n = entrants.size();
+        this.entrants = entrants;
+        this.wins = new long[n][n];
+        this.draws = new long[n][n];
+        this.shotsToWin = new long[n];
+    }
+
+    void recordWin(int winner, int loser, int shots) {
+        wins[winner][loser]++;
+        shotsToWin[winner] += shots;
+    }
+
+    void recordDraw(int a, int b) {
+        draws[a][b]++;
+        draws[b][a]++;
+    }
+
+    void merge(TournamentResult other) {
+        for (int a = 0; a < wins.length; a++) {
+            for (int b = 0; b < wins.length; b++) {
+                wins[a][b] += other.wins[a][b];
+                draws[a][b] += other.draws[a][b];
+            }
+            shotsToWin[a] += other.shotsToWin[a];
+        }
+        elapsedNanos += other.elapsedNanos;
+    }
+
+    void addElapsedNanos(long nanos) {
+        elapsedNanos += nanos;
+    }
+
+    void setMatchPoints(double[] matchPoints) {
+        this.matchPoints = matchPoints;
+    }
+
+    long getWins(int a, int b) {
+        return wins[a][b];
+    }
+
+    long getGames(int a) {
+        long games = 0;
+        for (int b = 0; b < wins.length; b++) {
+            games += wins[a][b] + wins[b][a] + draws[a][b];
+        }
+        return games;
+    }
+
+    long getTotalWins(int a) {
+        long total = 0;
+        for (long w : wins[a]) {
+            total += w;
+        }
+        return total;
+    }
+
+    long getTotalDraws(int a) {
+        long total = 0;
+        for (long d : draws[a]) {
+            total += d;
+        }
+        return total;
+    }
+
+    // Bradley-Terry strengths fitted with the MM algorithm, as natural-log ratings with mean 0.
+    // Every pairing that played gets one extra virtual drawn game, so an entrant that never won
+    // still gets a finite rating.
+    double[] logStrengths() {
+        int n = wins.length;
+        double[][] games = new double[n][n];
+        double[] score = new double[n];
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                long played = wins[a][b] + wins[b][a] + draws[a][b];
+                if (a != b && played > 0) {
+                    games[a][b] = played + 1;
+                    score[a] += wins[a][b] + 0.5 * draws[a][b] + 0.5;
+                }
+            }
+        }
+        double[] gamma = new double[n];
+        Arrays.fill(gamma, 1);
+        for (int iteration = 0; iteration < 100_000; iteration++) {
+            double change = 0;
+            double logSum = 0;
+            double[] next = new double[n];
+            for (int a = 0; a < n; a++) {
+                double denominator = 0;
+                for (int b = 0; b < n; b++) {
+                    if (games[a][b] > 0) {
+                        denominator += games[a][b] / (gamma[a] + gamma[b]);
+                    }
+                }
+                next[a] = denominator == 0 ? 1 : score[a] / denominator;
+                logSum += Math.log(next[a]);
+            }
+            double scale = Math.exp(-logSum / n);
+            for (int a = 0; a < n; a++) {
+                next[a] *= scale;
+                change = Math.max(change, Math.abs(Math.log(next[a] / gamma[a])));
+            }
+            gamma = next;
+            if (change < 1e-10) {
+                break;
+            }
+        }
+        double[] ratings = new double[n];
+        for (int a = 0; a < n; a++) {
+            ratings[a] = Math.log(gamma[a]);
+        }
+        return ratings;
+    }
+
+    // Elo ratings around 1500 and the half-width of their 95% confidence intervals, from the
+    // diagonal of the Fisher information of the Bradley-Terry fit
+    double[][] eloRatings() {
+        int n = wins.length;
+        double[] theta = logStrengths();
+        double[] elo = new double[n];
+        double[] interval = new double[n];
+        for (int a = 0; a < n; a++) {
+            double information = 0;
+            for (int b = 0; b < n; b++) {
+                long played = wins[a][b] + wins[b][a] + draws[a][b];
+                if (a != b && played > 0) {
+                    double p = 1 / (1 + Math.exp(theta[b] - theta[a]));
+                    information += played * p * (1 - p);
+                }
+            }
+            elo[a] = 1500 + ELO_SCALE * theta[a];
+            interval[a] = information == 0 ? Double.POSITIVE_INFINITY : 1.96 * ELO_SCALE / Math.sqrt(information);
+        }
+        return new double[][]{elo, interval};
+    }
+
+    public String toString() {
+        int n = wins.length;
+        double[][] ratings = eloRatings();
+        Integer[] order = new Integer[n];
+        long games = 0;
+        for (int a = 0; a < n; a++) {
+            order[a] = a;
+            games += getGames(a);
+        }
+        games /= 2;
+        Arrays.sort(order, Comparator.comparingDouble((Integer a) -> -ratings[0][a]));
+
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(String.format("games: %d, %.0f games/s\n", games,
+                elapsedNanos == 0 ? 0 : games * 1e9 / elapsedNanos));
+        stringBuilder.append(String.format("%-4s %-20s %8s %8s %6s %7s %7s %11s%s\n", "rank", "entrant", "games",
+                "wins", "draws", "score", "shots", "elo", matchPoints == null ? "" : "  points"));
+        for (int rank = 0; rank < n; rank++) {
+            int a = order[rank];
+            long played = getGames(a);
+            long won = getTotalWins(a);
+            long drawn = getTotalDraws(a);
+            stringBuilder.append(String.format("%-4d %-20s %8d %8d %6d %6.2f%% %7.2f %5.0f +- %3.0f", rank + 1,
+                    entrants.get(a).name, played, won, drawn,
+                    played == 0 ? 0 : 100.0 * (won + 0.5 * drawn) / played,
+                    won == 0 ? 0 : (double) shotsToWin[a] / won, ratings[0][a], ratings[1][a]));
+            if (matchPoints != null) {
+                stringBuilder.append(String.format("  %6.1f", matchPoints[a]));
+            }
+            stringBuilder.append('\n');
+        }
+        return stringBuilder.toString();
+    }
+}
@@ -0,0 +1,139 @@
+package battleship;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitBattlefieldTest {
+
+    private static final int SIZE = BitBattlefield.SIZE;
+    private static final int CELLS = BitBattlefield.CELLS;
+    private static final int FIELDS = 500;
+
+    // random placements, legal or not, then every cell shot in random order with repeats in between
+    @Test
+    public void shotsMatchBattlefield() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int field = 0; field < FIELDS; field++) {
+            boolean touching = field % 2 == 1;
+            Battlefield battlefield = new Battlefield(SIZE, touching);
+            BitBattlefield bits = new BitBattlefield(touching);
+            placeRandomShips(random, battlefield, bits);
+
+            int[] order = shuffledCells(random);
+            for (int i = 0; i < CELLS; i++) {
+                int cell = random.nextInt(4) == 0 ? order[random.nextInt(i + 1)] : order[i];
+                Coordinate shot = Coordinate.of(cell / SIZE, cell % SIZE);
+                assertEquals("field " + field + " shot " + shot,
+                        outcome(battlefield.shoot(shot).getKind()), bits.fire(cell));
+                assertSame(field, battlefield, bits);
+            }
+        }
+    }
+
+    // the same, with all cells fired in salvos of random sizes
+    @Test
+    public void salvosMatchBattlefield() {
+        SplittableRandom random = new SplittableRandom(2);
+        ShotResult.Kind[] kinds = new ShotResult.Kind[CELLS];
+        long[] out = new long[4];
+        for (int field = 0; field < FIELDS; field++) {
+            boolean touching = field % 2 == 0;
+            Battlefield battlefield = new Battlefield(SIZE, touching);
+            BitBattlefield bits = new BitBattlefield(touching);
+            placeRandomShips(random, battlefield, bits);
+
+            int[] order = shuffledCells(random);
+            for (int first = 0; first < CELLS; ) {
+                int count = Math.min(CELLS - first, 1 + random.nextInt(8));
+                int[] salvo = new int[count];
+                long lo = 0;
+                long hi = 0;
+                for (int i = 0; i < count; i++) {
+                    salvo[i] = order[first + i];
+                    if (salvo[i] < 64) {
+                        lo |= 1L << salvo[i];
+                    } else {
+                        hi |= 1L << (salvo[i] - 64);
+                    }
+                }
+                first += count;
+                assertEquals("field " + field, battlefield.shoot(salvo, count, kinds), bits.salvo(lo, hi, out));
+                for (int i = 0; i < count; i++) {
+                    boolean hit = kinds[i] != ShotResult.Kind.MISS;
+                    assertEquals(hit, BitBattlefield.isSet(out[0], out[1], salvo[i]));
+                    assertEquals(!hit, BitBattlefield.isSet(out[2], out[3], salvo[i]));
+                }
+                assertSame(field, battlefield, bits);
+            }
+        }
+    }
+
+    // up to eight ships of random lengths at random places; both fields must agree on every one,
+    // including the ones that do not fit on the field
+    private static void placeRandomShips(SplittableRandom random, Battlefield battlefield, BitBattlefield bits) {
+        int placed = 0;
+        for (int attempt = 0; attempt < 40 && placed < 8; attempt++) {
+            int row = random.nextInt(SIZE);
+            int col = random.nextInt(SIZE);
+            int length = 1 + random.nextInt(5);
+            boolean vertical = random.nextBoolean();
+            int tailRow = vertical ? row + length - 1 : row;
+            int tailCol = vertical ? col : col + length - 1;
+            Battlefield.Placement placement = battlefield.check(row, col, tailRow, tailCol, length);
+            boolean inside = tailRow < SIZE && tailCol < SIZE;
+            assertEquals(!inside, placement == Battlefield.Placement.OUT_OF_BOUNDS);
+            if (!inside) {
+                continue;
+            }
+            assertEquals(placement == Battlefield.Placement.OK, bits.canPlaceShip(row, col, length, vertical));
+            if (placement == Battlefield.Placement.OK) {
+                Ship.Orientation orientation = vertical ? Ship.Orientation.VERTICAL : Ship.Orientation.HORIZONTAL;
+                battlefield.addShip(new Ship(battlefield, Coordinate.of(row, col), orientation, length));
+                bits.addShip(row, col, length, vertical);
+                placed++;
+            }
+        }
+        assertTrue(placed > 0);
+        assertEquals(placed, bits.getNumberOfShips());
+        assertSame(-1, battlefield, bits);
+    }
+
+    private static void assertSame(int field, Battlefield battlefield, BitBattlefield bits) {
+        String message = "field " + field;
+        assertEquals(message, battlefield.getNumberOfShips(), bits.getNumberOfShips());
+        assertEquals(message, battlefield.getHitPoints(), bits.getHitPoints());
+        assertEquals(message, battlefield.asString(true), bits.asString(true));
+        assertEquals(message, battlefield.asString(false), bits.asString(false));
+    }
+
+    private static Game.Outcome outcome(ShotResult.Kind kind) {
+        switch (kind) {
+            case WIN:
+                return Game.Outcome.WIN;
+            case SUNK:
+                return Game.Outcome.SHIP_SUNK;
+            case HIT:
+                return Game.Outcome.HIT;
+            default:
+                return Game.Outcome.MISS;
+        }
+    }
+
+    private static int[] shuffledCells(SplittableRandom random) {
+        int[] cells = new int[CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            cells[i] = i;
+        }
+        for (int i = CELLS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int cell = cells[i];
+            cells[i] = cells[j];
+            cells[j] = cell;
+        }
+        return cells;
+    }
+}
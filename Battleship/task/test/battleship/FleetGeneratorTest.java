@@ -0,0 +1,111 @@
+package battleship;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Every legal fleet on a 5x5 field is listed, then drawn DRAWS times over on average; the counts
+// must pass a chi-square test against the uniform distribution.
+public class FleetGeneratorTest {
+
+    private static final int DRAWS = 100;
+
+    // sparse enough for rejection
+    @Test
+    public void sparseFleetIsUniform() {
+        RuleSet rules = new RuleSet("sparse", 5, false, RuleSet.parseFleet("A:3, B:2, C:2"));
+        FleetGenerator generator = new FleetGenerator(rules);
+        SplittableRandom random = new SplittableRandom(1);
+        assertUniform(generator, allFleets(generator, null), placements -> generator.generate(random, placements));
+    }
+
+    // too crowded for rejection, so the counter draws it
+    @Test
+    public void crowdedFleetIsUniform() {
+        RuleSet rules = new RuleSet("crowded", 5, false, RuleSet.parseFleet("A:3, B:3, C:3, D:3"));
+        FleetGenerator generator = new FleetGenerator(rules);
+        SplittableRandom random = new SplittableRandom(2);
+        assertUniform(generator, allFleets(generator, null), placements -> generator.generate(random, placements));
+    }
+
+    // every ship touches the edge, and every such fleet is equally likely
+    @Test
+    public void restrictedFleetIsUniform() {
+        RuleSet rules = new RuleSet("edge", 5, false, RuleSet.parseFleet("A:3, B:2, C:2"));
+        FleetGenerator generator = new FleetGenerator(rules);
+        Placer placer = RestrictedPlacer.edge();
+        SplittableRandom random = new SplittableRandom(3);
+        List<String> fleets = allFleets(generator, FleetGeneratorTest::onEdge);
+        assertUniform(generator, fleets, placements -> placer.place(generator, random, placements));
+    }
+
+    private interface Draw {
+
+        void draw(int[] placements);
+    }
+
+    private static void assertUniform(FleetGenerator generator, List<String> fleets, Draw draw) {
+        Map<String, Integer> counts = new HashMap<>();
+        int[] placements = new int[generator.getFleet().length];
+        for (int i = 0; i < fleets.size() * DRAWS; i++) {
+            draw.draw(placements);
+            counts.merge(Arrays.toString(placements), 1, Integer::sum);
+        }
+        assertEquals("only legal fleets are drawn", fleets.size(), counts.size());
+        double chiSquare = 0;
+        for (String fleet : fleets) {
+            double observed = counts.getOrDefault(fleet, 0);
+            chiSquare += (observed - DRAWS) * (observed - DRAWS) / DRAWS;
+        }
+        // five standard deviations above what uniform draws give on average
+        int df = fleets.size() - 1;
+        assertTrue("chi-square " + chiSquare + " over " + df, chiSquare < df + 5 * Math.sqrt(2.0 * df));
+    }
+
+    private interface PlacementTest {
+
+        boolean test(PlacementTable table, int p);
+    }
+
+    // every list of placements, one per ship, that do not overlap and pass the test
+    private static List<String> allFleets(FleetGenerator generator, PlacementTest test) {
+        List<String> fleets = new ArrayList<>();
+        addFleets(generator, test, 0, 0, 0, new int[generator.getFleet().length], fleets);
+        return fleets;
+    }
+
+    private static void addFleets(FleetGenerator generator, PlacementTest test, int ship, long blockedLo, long blockedHi,
+                                  int[] placements, List<String> fleets) {
+        if (ship == placements.length) {
+            fleets.add(Arrays.toString(placements));
+            return;
+        }
+        PlacementTable table = generator.getTable(ship);
+        for (int p = 0; p < table.count; p++) {
+            if ((table.lo[p] & blockedLo) == 0 && (table.hi[p] & blockedHi) == 0 && (test == null || test.test(table, p))) {
+                placements[ship] = p;
+                addFleets(generator, test, ship + 1, blockedLo | table.zoneLo[p], blockedHi | table.zoneHi[p],
+                        placements, fleets);
+            }
+        }
+    }
+
+    private static boolean onEdge(PlacementTable table, int p) {
+        for (int cell : table.cells[p]) {
+            int row = BitBattlefield.row(cell);
+            int col = BitBattlefield.col(cell);
+            if (row == 0 || col == 0 || row == table.size - 1 || col == table.size - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
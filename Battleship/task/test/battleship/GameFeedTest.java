@@ -0,0 +1,100 @@
+package battleship;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GameFeedTest {
+
+    private static final int GAME = 7;
+    private static final int SHOTS = 200_000;
+    private static final int READERS = 3;
+
+    // a ring of four records is overwritten all the time, so readers keep racing the writer
+    @Test
+    public void readersOnlySeeIntactRecords() throws InterruptedException {
+        GameFeed feed = new GameFeed(GAME, 4);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] delivered = new long[READERS];
+        long[] lost = new long[READERS];
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < READERS; i++) {
+            int reader = i;
+            GameFeed.Cursor cursor = feed.subscribe();
+            readers[i] = new Thread(() -> {
+                Checker checker = new Checker();
+                try {
+                    while (!cursor.isDone()) {
+                        if (cursor.poll(checker) == 0) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+                delivered[reader] = checker.records;
+                lost[reader] = cursor.getLost();
+            }, "feed-reader-" + i);
+            readers[i].start();
+        }
+
+        feed.start(Coordinate.STANDARD_SIZE);
+        for (int i = 0; i < SHOTS; i++) {
+            Game.Outcome outcome = i == SHOTS - 1 ? Game.Outcome.WIN : Game.Outcome.values()[i % 4 + 1];
+            feed.shot(i & 1, 1 - (i & 1), i, check(i), outcome);
+            if (i % 256 == 0) {
+                // lets the readers in on machines with few cores
+                Thread.yield();
+            }
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        for (int i = 0; i < READERS; i++) {
+            assertEquals("records delivered or counted as lost", SHOTS + 1, delivered[i] + lost[i]);
+        }
+    }
+
+    // the column a shot record carries, so a record mixing two shots is caught
+    private static int check(int row) {
+        return row * 0x9E3779B1 ^ 0x5BD1E995;
+    }
+
+    private static final class Checker implements GameFeed.Handler {
+
+        private long records;
+        private int lastRow = -1;
+
+        @Override
+        public void start(int game, int size) {
+            assertEquals(GAME, game);
+            assertEquals(Coordinate.STANDARD_SIZE, size);
+            assertEquals(0, records);
+            records++;
+        }
+
+        @Override
+        public void shot(int game, int player, int target, int row, int col, Game.Outcome outcome) {
+            assertEquals(GAME, game);
+            if (row <= lastRow) {
+                throw new AssertionError("Shot " + row + " after shot " + lastRow);
+            }
+            assertEquals(check(row), col);
+            assertEquals(row & 1, player);
+            assertEquals(1 - (row & 1), target);
+            assertEquals(row == SHOTS - 1 ? Game.Outcome.WIN : Game.Outcome.values()[row % 4 + 1], outcome);
+            lastRow = row;
+            records++;
+        }
+
+        @Override
+        public void abandoned(int game) {
+            throw new AssertionError("The game was not abandoned");
+        }
+    }
+}
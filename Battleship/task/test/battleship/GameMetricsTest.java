@@ -0,0 +1,121 @@
+package battleship;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GameMetricsTest {
+
+    private static final String[] FLEET = {"A1", "A5", "C1", "C4", "E1", "E3", "G1", "G3", "I1", "I2"};
+
+    @After
+    public void tearDown() {
+        GameMetrics.disable();
+        GameMetrics.INSTANCE.reset();
+    }
+
+    // every value below 2^20 lands in a bucket whose bounds hold it, at most 12.5% wide, with no gap
+    // between one bucket and the next
+    @Test
+    public void bucketsCoverEveryValue() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.bucket(value));
+            assertEquals(value, LatencyHistogram.upperBound((int) value));
+        }
+        int previous = LatencyHistogram.bucket(15);
+        for (long value = 16; value < 1 << 20; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue("bucket of " + value, bucket == previous || bucket == previous + 1);
+            if (bucket != previous) {
+                assertEquals("first value of bucket " + bucket, LatencyHistogram.upperBound(previous) + 1, value);
+            }
+            assertTrue(value + " above " + upper, value <= upper);
+            assertTrue(value + " far below " + upper, upper - value < value / 8 + 1);
+            previous = bucket;
+        }
+        assertEquals(1023, LatencyHistogram.upperBound(LatencyHistogram.bucket(1000)));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.mean(), 0);
+        // the 500th value is 500, in the bucket 480..511
+        assertEquals(511, histogram.percentile(50));
+        // the 990th is 990, in 960..1023, and no bound is reported above the largest value
+        assertEquals(1000, histogram.percentile(99));
+        assertEquals(1000, histogram.getMax());
+        assertEquals(1, histogram.percentile(0));
+
+        histogram.reset();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(10);
+        }
+        histogram.record(-5);
+        histogram.record(1_000_000);
+        assertEquals(10, histogram.percentile(50));
+        assertEquals(10, histogram.percentile(99));
+        assertEquals(1_000_000, histogram.percentile(100));
+        assertEquals(0, histogram.percentile(0.5));
+    }
+
+    // the same game leaves every counter at zero until collection is enabled
+    @Test
+    public void nothingIsCollectedWhileDisabled() {
+        assertFalse(GameMetrics.isEnabled());
+        assertEquals(0, GameMetrics.start());
+        GameMetrics.stop(GameMetrics.SHOT, GameMetrics.start());
+        GameMetrics.move(Game.Outcome.HIT);
+        GameMetrics.invalidInput();
+        play();
+        assertCounts(0, 0, 0);
+        for (int phase = GameMetrics.PARSE; phase <= GameMetrics.RENDER; phase++) {
+            assertEquals(0, GameMetrics.INSTANCE.getLatency(phase).getCount());
+        }
+
+        GameMetrics.enable();
+        play();
+        // a hit at A1 and a miss at B1, after a ship out of line
+        assertCounts(2, 1, 1);
+        assertEquals(1, GameMetrics.INSTANCE.getInvalidInputs());
+        assertTrue(GameMetrics.INSTANCE.getLatency(GameMetrics.PARSE).getCount() > 0);
+        assertTrue(GameMetrics.INSTANCE.getLatency(GameMetrics.RENDER).getCount() > 0);
+    }
+
+    private static void assertCounts(long moves, long hits, long misses) {
+        assertEquals(moves, GameMetrics.INSTANCE.getMoves());
+        assertEquals(hits, GameMetrics.INSTANCE.getHits());
+        assertEquals(misses, GameMetrics.INSTANCE.getMisses());
+        assertEquals(0, GameMetrics.INSTANCE.getSinks());
+    }
+
+    // two fleets, one ship out of line on the way, then a hit and a miss
+    private static void play() {
+        Game game = new Game(RuleSet.STANDARD, 2, GameIO.sink(new StringWriter()));
+        game.start();
+        game.accept("A1");
+        game.accept("B2");
+        for (int player = 0; player < 2; player++) {
+            for (String cell : FLEET) {
+                game.accept(cell);
+            }
+            game.enter();
+        }
+        game.accept("A1");
+        game.enter();
+        game.accept("B1");
+        game.getIO().flush();
+    }
+}
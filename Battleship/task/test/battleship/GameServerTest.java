@@ -0,0 +1,191 @@
+package battleship;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GameServerTest {
+
+    private static final long TURN_MILLIS = 300;
+    private static final String[] FLEET = {"A1 A5", "C1 C4", "E1 E3", "G1 G3", "I1 I2"};
+    // player 1 sinks the fleet in fleet order while player 2 keeps missing on the empty rows
+    private static final String[] HITS = {
+            "A1", "A2", "A3", "A4", "A5", "C1", "C2", "C3", "C4",
+            "E1", "E2", "E3", "G1", "G2", "G3", "I1", "I2"};
+    private static final String[] MISSES = {
+            "J1", "J2", "J3", "J4", "J5", "J6", "J7", "J8", "J9", "J10", "B1", "B2", "B3", "B4", "B5", "B6"};
+
+    private GameServer server;
+    private Path logFile;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("battleship-server", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        Files.deleteIfExists(logFile);
+    }
+
+    private void startServer(int workers) throws IOException {
+        server = new GameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), workers,
+                Coordinate.STANDARD_SIZE);
+        server.setTimeLimits(TURN_MILLIS, 30_000, TimeUnit.MILLISECONDS, Game.TimeoutAction.FORFEIT);
+    }
+
+    // one client plays a whole game while the other never types a thing and runs out of turn time
+    @Test
+    public void scriptedGameAndIdleClient() throws IOException, InterruptedException {
+        startServer(2);
+        server.start();
+        try (Socket idle = connect(); Socket player = connect()) {
+            long idleStart = System.nanoTime();
+
+            OutputStream out = player.getOutputStream();
+            out.write(script().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String transcript = readToEnd(player);
+
+            assertTrue(transcript.startsWith("Player 1, place your ships on the game field\n"));
+            assertEquals(1, count(transcript, "Player 2, place your ships on the game field"));
+            assertEquals(HITS.length - 5, count(transcript, "You hit a ship!"));
+            assertEquals(4, count(transcript, "You sank a ship!"));
+            assertEquals(MISSES.length, count(transcript, "You missed!"));
+            assertEquals(0, count(transcript, "Error"));
+            assertEquals(0, count(transcript, "Time is up"));
+            assertTrue(transcript.endsWith("You sank the last ship. You won. Congratulations!\n"));
+
+            String timedOut = readToEnd(idle);
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idleStart);
+            assertTrue(timedOut.startsWith("Player 1, place your ships on the game field\n"));
+            assertTrue(timedOut.endsWith("Time is up! Player 1 is out of the game.\n"));
+            // the clock ticks every 100 ms, so it may fire up to a tick early
+            assertTrue("timed out after " + idleMillis + " ms", idleMillis >= TURN_MILLIS - 100);
+            assertTrue("timed out after " + idleMillis + " ms", idleMillis < 10_000);
+        }
+
+        // both games are over, so the server drops both sessions
+        awaitSessions(0);
+    }
+
+    // the first game throws on its first placement; the next one on the same worker plays on
+    @Test
+    public void failingSessionLeavesWorkerRunning() throws IOException, InterruptedException {
+        startServer(1);
+        try (BrokenLog log = new BrokenLog(logFile)) {
+            server.setReplayLog(log);
+            server.start();
+            try (Socket broken = connect()) {
+                awaitSessions(1);
+                try (Socket player = connect()) {
+                    awaitSessions(2);
+                    OutputStream out = broken.getOutputStream();
+                    out.write((FLEET[0] + "\n").getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    String dropped = readToEnd(broken);
+                    assertTrue(dropped.startsWith("Player 1, place your ships on the game field\n"));
+                    assertFalse(dropped.contains("Enter the coordinates the Battleship"));
+                    awaitSessions(1);
+
+                    player.getOutputStream().write(script().getBytes(StandardCharsets.US_ASCII));
+                    player.getOutputStream().flush();
+                    String transcript = readToEnd(player);
+                    assertTrue(transcript.endsWith("You sank the last ship. You won. Congratulations!\n"));
+                }
+            }
+            awaitSessions(0);
+        }
+    }
+
+    private void awaitSessions(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getSessionCount() != count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, server.getSessionCount());
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    // both fleets, then the shots, with an empty line wherever the move is passed
+    private static String script() {
+        StringBuilder script = new StringBuilder();
+        for (int player = 0; player < 2; player++) {
+            for (String ship : FLEET) {
+                script.append(ship).append('\n');
+            }
+            script.append('\n');
+        }
+        for (int shot = 0; shot < HITS.length; shot++) {
+            script.append(HITS[shot]).append("\n\n");
+            if (shot < MISSES.length) {
+                script.append(MISSES[shot]).append("\n\n");
+            }
+        }
+        return script.toString();
+    }
+
+    // everything the server sends until it closes the connection at the end of the game
+    private static String readToEnd(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    // a log that fails the first game it is told about, like a log that cannot grow any more
+    private static final class BrokenLog extends ReplayLog {
+
+        private int broken = -1;
+
+        BrokenLog(Path path) throws IOException {
+            super(path);
+        }
+
+        @Override
+        synchronized int game(int size, int players, boolean touching) {
+            int game = super.game(size, players, touching);
+            if (broken < 0) {
+                broken = game;
+            }
+            return game;
+        }
+
+        @Override
+        synchronized void placement(int game, int board, int row, int col, int length, boolean vertical) {
+            if (game == broken) {
+                throw new IllegalStateException("Cannot grow the replay log");
+            }
+            super.placement(game, board, row, col, length, vertical);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package battleship;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Takes a snapshot after every input of a scripted game, so every phase is covered: half-entered
+// placements, passing the move, a picked target, half-entered salvos and the finished game. The
+// restored game must snapshot to the same bytes and play the rest of the script exactly like the
+// original.
+public class GameSnapshotTest {
+
+    private static final String[] FLEET = {"A1", "A5", "C1", "C4", "E1", "E3", "G1", "G3", "I1", "I2"};
+    private static final String[] HITS = {
+            "A1", "A2", "A3", "A4", "A5", "C1", "C2", "C3", "C4",
+            "E1", "E2", "E3", "G1", "G2", "G3", "I1", "I2"};
+    private static final String[] MISSES = {
+            "J1", "J2", "J3", "J4", "J5", "J6", "J7", "J8", "J9", "J10", "B1", "B2", "B3", "B4", "B5", "B6"};
+
+    @Test
+    public void standardGame() {
+        List<String> script = new ArrayList<>();
+        // a ship out of line and a shot off the field are retried
+        script.addAll(Arrays.asList("A1", "B2"));
+        for (int player = 0; player < 2; player++) {
+            script.addAll(Arrays.asList(FLEET));
+            script.add("");
+        }
+        for (int shot = 0; shot < HITS.length; shot++) {
+            if (shot == 3) {
+                script.add("K11");
+            }
+            script.add(HITS[shot]);
+            script.add("");
+            if (shot < MISSES.length) {
+                script.add(MISSES[shot]);
+                script.add("");
+            }
+        }
+        script.remove(script.size() - 1);
+        roundTrips(RuleSet.STANDARD, 2, script);
+    }
+
+    // three players with salvos of two: targets are picked every turn and players are eliminated
+    @Test
+    public void threePlayerSalvoGame() {
+        RuleSet rules = new RuleSet("three", 5, false, RuleSet.parseFleet("Boat:2, Dinghy:1"), 2);
+        List<String> script = new ArrayList<>();
+        for (int player = 0; player < 3; player++) {
+            script.addAll(Arrays.asList("A1", "A2", "C1", "C1", ""));
+        }
+        script.addAll(Arrays.asList(
+                "2", "A1", "A2", "",
+                "3", "E5", "E4", "",
+                "1", "E5", "E4", "",
+                // player 2 is out and skipped from now on
+                "2", "C1", "E5", "",
+                "1", "A1", "A2", "",
+                "3", "A1", "A2", "",
+                "1", "C1", "E1"));
+        roundTrips(rules, 3, script);
+    }
+
+    private static void roundTrips(RuleSet rules, int players, List<String> script) {
+        StringWriter text = new StringWriter();
+        Game game = new Game(rules, players, GameIO.sink(text));
+        game.start();
+        game.getIO().flush();
+
+        // the snapshot after each input, and what the game printed for each input
+        List<byte[]> snapshots = new ArrayList<>();
+        List<String> printed = new ArrayList<>();
+        snapshots.add(game.snapshot());
+        boolean passed = false;
+        for (String input : script) {
+            passed |= game.wantsEnter();
+            text.getBuffer().setLength(0);
+            apply(game, input);
+            printed.add(text.toString());
+            snapshots.add(game.snapshot());
+        }
+        assertTrue(passed);
+        assertTrue(game.isFinished());
+
+        for (int step = 0; step < snapshots.size(); step++) {
+            StringWriter restoredText = new StringWriter();
+            Game restored = Game.restore(rules, GameIO.sink(restoredText), snapshots.get(step));
+            assertArrayEquals("step " + step, snapshots.get(step), restored.snapshot());
+            for (int next = step; next < script.size(); next++) {
+                restoredText.getBuffer().setLength(0);
+                apply(restored, script.get(next));
+                assertEquals("step " + step + ", input " + next, printed.get(next), restoredText.toString());
+                assertArrayEquals("step " + step + ", input " + next, snapshots.get(next + 1), restored.snapshot());
+            }
+            assertTrue(restored.isFinished());
+        }
+    }
+
+    // one token, or Enter for ""
+    private static void apply(Game game, String input) {
+        assertEquals("Enter where the game wants it", game.wantsEnter(), input.isEmpty());
+        if (input.isEmpty()) {
+            game.enter();
+        } else {
+            game.accept(input);
+        }
+        game.getIO().flush();
+    }
+}
@@ -0,0 +1,114 @@
+package battleship;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayLogTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("battleship-replay", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    // games logged over two runs, the second appending after the end findEnd finds, are rebuilt
+    // exactly as they were played
+    @Test
+    public void rebuildMatchesLiveBattlefields() throws IOException {
+        SplittableRandom random = new SplittableRandom(3);
+        Battlefield[] first;
+        int firstGame;
+        try (ReplayLog log = new ReplayLog(file)) {
+            firstGame = log.game(Coordinate.STANDARD_SIZE, 2, false);
+            first = play(log, firstGame, 2, false, random);
+        }
+        long records;
+        Battlefield[] second;
+        int secondGame;
+        try (ReplayLog log = new ReplayLog(file)) {
+            records = log.getRecords();
+            assertTrue(records > 1);
+            secondGame = log.game(Coordinate.STANDARD_SIZE, 3, true);
+            second = play(log, secondGame, 3, true, random);
+        }
+        assertNotEquals(firstGame, secondGame);
+        assertEquals(records, secondGame);
+
+        Map<Integer, Battlefield[]> games = ReplayLog.rebuild(file);
+        assertEquals(2, games.size());
+        assertSame(first, games.get(firstGame));
+        assertSame(second, games.get(secondGame));
+    }
+
+    @Test
+    public void rebuildRefusesAGameThatStartsTwice() throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(3 * ReplayLog.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        gameRecord(records, 7);
+        records.put(ReplayLog.SHOT).put((byte) 0).put((byte) 0).put((byte) 0).putInt(7).putInt(0).putInt(0);
+        gameRecord(records, 7);
+        Files.write(file, records.array());
+        try {
+            ReplayLog.rebuild(file);
+            fail("A game that starts twice was rebuilt");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Game 7 starts twice"));
+        }
+    }
+
+    private static void gameRecord(ByteBuffer records, int game) {
+        records.put(ReplayLog.GAME).put((byte) 0).put((byte) 0).put((byte) 0)
+                .putInt(game).putInt(Coordinate.STANDARD_SIZE).putInt(2);
+    }
+
+    // random fleets, then random shots at every board, some of them at cells shot before
+    private static Battlefield[] play(ReplayLog log, int game, int players, boolean touching, SplittableRandom random) {
+        FleetGenerator generator = new FleetGenerator(RuleSet.STANDARD);
+        Battlefield[] battlefields = new Battlefield[players];
+        for (int board = 0; board < players; board++) {
+            Battlefield battlefield = new Battlefield(Coordinate.STANDARD_SIZE, touching);
+            battlefield.setReplayLog(log, game, board);
+            int[] placements = new int[generator.getFleet().length];
+            generator.generate(random, placements);
+            for (int i = 0; i < placements.length; i++) {
+                PlacementTable table = generator.getTable(i);
+                int p = placements[i];
+                Ship.Orientation orientation = table.vertical[p] ? Ship.Orientation.VERTICAL : Ship.Orientation.HORIZONTAL;
+                battlefield.addShip(new Ship(battlefield, Coordinate.of(table.row(p), table.col(p)), orientation, table.length));
+            }
+            for (int shot = 0; shot < 60; shot++) {
+                battlefield.shoot(Coordinate.of(random.nextInt(Coordinate.STANDARD_SIZE), random.nextInt(Coordinate.STANDARD_SIZE)));
+            }
+            battlefields[board] = battlefield;
+        }
+        return battlefields;
+    }
+
+    private static void assertSame(Battlefield[] live, Battlefield[] rebuilt) {
+        assertEquals(live.length, rebuilt.length);
+        for (int board = 0; board < live.length; board++) {
+            assertEquals(live[board].getNumberOfShips(), rebuilt[board].getNumberOfShips());
+            assertEquals(live[board].getHitPoints(), rebuilt[board].getHitPoints());
+            assertEquals(live[board].asString(false), rebuilt[board].asString(false));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package battleship;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// A wheel of 8 ticks of 10 ns each, so one ring is 80 ns, on a clock the test moves by hand.
+public class TimerWheelTest {
+
+    private static final long TICK = 10;
+    private static final int SLOTS = 8;
+
+    private long now;
+    private TimerWheel wheel;
+    private final List<String> fired = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        now = 1_000;
+        wheel = new TimerWheel(TICK, SLOTS, () -> now);
+    }
+
+    @Test
+    public void sizeCountsPendingTimeouts() {
+        TimerWheel.Timeout a = schedule("a", 20);
+        TimerWheel.Timeout b = schedule("b", 20);
+        schedule("c", 30);
+        assertEquals(3, wheel.size());
+
+        assertTrue(b.cancel());
+        assertFalse(b.cancel());
+        assertFalse(b.isPending());
+        assertEquals(2, wheel.size());
+
+        assertEquals(2, wheel.advance(now + 30));
+        assertEquals(List.of("a", "c"), sorted(fired));
+        assertFalse(a.cancel());
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void deadlineRingsAwayWaitsForItsRound() {
+        schedule("far", 250);
+        // each step walks the slot the timeout sits in three times before its round comes
+        for (long t = TICK; t < 250; t += TICK) {
+            assertEquals("at " + t, 0, wheel.advance(now + t));
+        }
+        assertEquals(1, wheel.advance(now + 250));
+        assertEquals(List.of("far"), fired);
+    }
+
+    @Test
+    public void jumpLongerThanTheRingFiresEverythingDue() {
+        schedule("soon", 30);
+        schedule("rings away", 500);
+        schedule("later", 2_000);
+        assertEquals(2, wheel.advance(now + 1_000));
+        assertEquals(List.of("rings away", "soon"), sorted(fired));
+        assertEquals(1, wheel.size());
+
+        assertEquals(0, wheel.advance(now + 1_990));
+        assertEquals(1, wheel.advance(now + 2_000));
+        assertTrue(wheel.isEmpty());
+    }
+
+    // whichever task runs first cancels the other, which then must not run
+    @Test
+    public void taskCancelsAnotherDueInTheSameTick() {
+        TimerWheel.Timeout[] timeouts = new TimerWheel.Timeout[2];
+        for (int i = 0; i < 2; i++) {
+            int other = 1 - i;
+            String name = "t" + i;
+            timeouts[i] = wheel.schedule(50, () -> {
+                fired.add(name);
+                assertTrue(timeouts[other].cancel());
+            });
+        }
+        assertEquals(1, wheel.advance(now + 50));
+        assertEquals(1, fired.size());
+        assertTrue(wheel.isEmpty());
+    }
+
+    // a task that schedules at once lands in a later tick, never in the walk under way
+    @Test
+    public void taskSchedulingFromInsideRunsLater() {
+        wheel.schedule(20, () -> schedule("again", 0));
+        assertEquals(1, wheel.advance(now + 20));
+        assertEquals(1, wheel.size());
+        assertTrue(fired.isEmpty());
+
+        now += 20;
+        assertEquals(1, wheel.advance(now + TICK));
+        assertEquals(List.of("again"), fired);
+    }
+
+    private TimerWheel.Timeout schedule(String name, long delay) {
+        return wheel.schedule(delay, () -> fired.add(name));
+    }
+
+    private static List<String> sorted(List<String> names) {
+        List<String> copy = new ArrayList<>(names);
+        copy.sort(null);
+        return copy;
+    }
+}
@@ -0,0 +1,42 @@
+package battleship;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TournamentTest {
+
+    @Test
+    public void byeGoesToTheLowestRankedWithoutOne() {
+        Integer[] order = {2, 0, 1};
+        assertEquals(1, Tournament.bye(order, new boolean[]{false, false, false}));
+        assertEquals(0, Tournament.bye(order, new boolean[]{false, true, false}));
+        assertEquals(2, Tournament.bye(order, new boolean[]{true, true, false}));
+    }
+
+    // once everyone has had a bye the leader must not get another free point
+    @Test
+    public void byeAfterEveryoneHadOneGoesToTheLast() {
+        Integer[] order = {2, 0, 1};
+        assertEquals(1, Tournament.bye(order, new boolean[]{true, true, true}));
+    }
+
+    // three entrants over five rounds: after the first three rounds every bye goes to one of the
+    // two weak entrants, so the strong one sits out only once
+    @Test
+    public void swissWithMoreRoundsThanEntrants() {
+        List<Tournament.Entrant> entrants = Arrays.asList(
+                Tournament.Entrant.parse("density"),
+                Tournament.Entrant.parse("random"),
+                Tournament.Entrant.parse("random/edge"));
+        int games = 4;
+        int rounds = 5;
+        TournamentResult result = new Tournament(RuleSet.STANDARD, entrants, games, 11).swiss(rounds);
+        // one pairing a round, and each of its games counts for both sides
+        assertEquals(2 * games * rounds, result.getGames(0) + result.getGames(1) + result.getGames(2));
+        assertEquals(games * (rounds - 1), result.getGames(0));
+    }
+}